@@ -101,6 +101,13 @@ say("AAAA", debug);
      }
    }
 
+  void execute(int Steps, int Repeats)                                          // Execute the instructions in this machine allowing at least the specified number of steps and of iterations of each repeat block
+   {final int S = maxSteps, R = maxRepeatSteps;
+    maxSteps       = max(S, Steps);
+    maxRepeatSteps = max(R, Repeats);
+    try {execute();} finally {maxSteps = S; maxRepeatSteps = R;}
+   }
+
   abstract class Instruction                                                    // An instruction to be executed
    {String name;                                                                // Name of the instruction
     String label;                                                               // Label of the instruction
@@ -172,14 +179,19 @@ say("AAAA", debug);
    }
 
   class CopyLong extends Instruction                                            // Copy bits from the source address set by copySetSource to the target address set by copySetTarget
-   {final int length;                                                           // Length of copy
+   {final int length;                                                           // Length of copy or length of each unit of the copy if there is a count
+    final Layout.Variable count;                                                // Number of units of length bits to copy or null if the length is fixed
+    final boolean binary;                                                       // The count is binary rather than unary
     CopyLong(int Length)                                                        // Specify length of copy
-     {length = Length;
+     {this(Length, null, false);
+     }
+    CopyLong(int Length, Layout.Variable Count, boolean Binary)                 // Specify length of each unit to copy and the variable holding the number of units to copy
+     {length = Length; count = Count; binary = Binary;
      }
     void action()                                                               // Perform instruction
-     {for(int i = 0; i < length; ++i)                                           // Copy each bit assuming no overlap
-       {final int I  = i;
-        final Boolean b = layout.memory.get(copySourceAddress+i);
+     {final int N = count == null ? length : length * indexValue(count, binary);// Number of bits to copy
+      for(int i = 0; i < N; ++i)                                                // Copy each bit assuming no overlap
+       {final Boolean b = layout.memory.get(copySourceAddress+i);
         layout.memory.set(copyTargetAddress+i, b);
        }
      }
@@ -187,11 +199,17 @@ say("AAAA", debug);
   CopyLong copyLong(int Length)                                                 // Copy bits from source location to target location
    {return new CopyLong(Length);
    }
+  CopyLong copyLong(int Length, Layout.Variable Count, boolean Binary)          // Copy a unary or binary count of units of the specified length from source location to target location
+   {return new CopyLong(Length, Count, Binary);
+   }
 
   class CopySetSource extends Instruction                                       // Set the source address for a long copy
    {final Layout.Field source;                                                  // Variable whose location is the source of the long copy
     CopySetSource(Layout.Field Source)                                          // Specify length of copy
-     {source = Source;
+     {if (Source.inColumns())                                                   // A long copy reads consecutive bits from the source address
+       {stop("Cannot copy long from a field laid out in columns:", Source.name);
+       }
+      source = Source;
      }
     void action()                                                               // Perform instruction
      {copySourceAddress = source.at;                                            // Source address
@@ -204,7 +222,10 @@ say("AAAA", debug);
   class CopySetTarget extends Instruction                                       // Set the target address for a long copy
    {final Layout.Field target;                                                  // Variable whose location is the target of the long copy
     CopySetTarget(Layout.Field Target)                                          // Specify length of copy
-     {target = Target;
+     {if (Target.inColumns())                                                   // A long copy writes consecutive bits from the target address
+       {stop("Cannot copy long to a field laid out in columns:", Target.name);
+       }
+      target = Target;
      }
     void action()                                                               // Perform instruction
      {copyTargetAddress = target.at;                                            // Target address
@@ -214,6 +235,243 @@ say("AAAA", debug);
    {return new CopySetTarget(target);
    }
 
+  class MoveRange extends Instruction                                           // Move a contiguous range of the elements of an array up or down by one or more slots in one step
+   {final Layout.Array    array;                                                // Array whose elements are to be moved
+    final Layout.Variable first;                                                // Unary index of the first element to move or null if the range starts at a fixed index
+    final boolean binary;                                                       // The index of the first element is binary rather than unary
+    final int offset;                                                           // Added to the unary index to get the index of the first element to move
+    final int last;                                                             // Index of the last element to move
+    final int by;                                                               // Number of slots to move: positive to move up, negative to move down
+    MoveRange(Layout.Array Array, Layout.Variable First, boolean Binary,        // Move the elements from the indicated unary or binary index plus an offset through the last element
+              int Offset, int Last, int By)
+     {array = Array; first = First; binary = Binary; offset = Offset;
+      last  = Last;  by    = By;
+     }
+    void action()                                                               // Perform instruction
+     {final int f = offset + indexValue(first, binary);                         // Index of first element to move
+      array.move(f, last, by);                                                  // Move the elements
+     }
+   }
+  MoveRange moveRange(Layout.Array array, int first, int last, int by)          // Move the elements of an array from first to last inclusive by the specified number of slots
+   {return new MoveRange(array, null, false, first, last, by);
+   }
+  MoveRange moveRange(Layout.Array array, Layout.Variable first, int offset,    // Move the elements of an array from a unary index plus an offset to last inclusive by the specified number of slots
+                      int last, int by)
+   {return new MoveRange(array, first, false, offset, last, by);
+   }
+  MoveRange moveRange(Layout.Array array, Layout.Variable first,                // Move the elements of an array from a unary or binary index plus an offset to last inclusive by the specified number of slots
+                      boolean binary, int offset, int last, int by)
+   {return new MoveRange(array, first, binary, offset, last, by);
+   }
+
+  static int leadingOnes(Layout.Field unary)                                    // The value of a unary number as the number of ones before the first zero
+   {final int N = unary.width;
+    for (int i = 0; i < N; ++i) if (!unary.get(i)) return i;                    // First zero
+    return N;
+   }
+
+  static int indexValue(Layout.Field index, boolean binary)                     // The value of an index held in unary or binary or zero if there is no index
+   {return indexValue(index, Encoding.of(binary));
+   }
+
+  static int indexValue(Layout.Field index, Encoding encoding)                  // The value of an index held in the specified encoding or zero if there is no index
+   {return index == null ? 0 : encoding.decode(index);
+   }
+
+//D2 Encoding                                                                   // The ways in which a counter such as a size or an index can be held in memory
+
+  enum Encoding                                                                 // Encodings of counters trading memory bits against the number of bits that change on each step
+   {unary,                                                                      // One bit per unit: max bits, one bit changes per step, comparison by testing a single bit
+    binary,                                                                     // Base two: log2(max+1) bits, on average two bits change per step
+    oneHot,                                                                     // A single bit marks the value: max+1 bits, two bits change per step, decodes directly to a select line
+    gray;                                                                       // Reflected binary: log2(max+1) bits, exactly one bit changes per step
+
+    static Encoding of(boolean Binary) {return Binary ? binary : unary;}        // Unary or binary
+
+    int width(int max)                                                          // Number of bits needed to hold a counter from zero to max
+     {return switch(this)
+       {case unary  -> max;
+        case oneHot -> max+1;
+        default     -> logTwo(max+1);
+       };
+     }
+
+    int decode(Layout.Field f)                                                  // The value of a field holding a counter in this encoding
+     {switch(this)
+       {case unary:  return leadingOnes(f);
+        case binary: return f.asInt();
+        case oneHot:
+         {final int N = f.width;
+          for (int i = 0; i < N; ++i) if (f.get(i)) return i;                   // First bit that is on
+          return 0;
+         }
+        default:
+         {int b = f.asInt();                                                    // Gray to binary by folding in each shift
+          for (int s = b >> 1; s != 0; s >>= 1) b ^= s;
+          return b;
+         }
+       }
+     }
+
+    void encode(Layout.Field f, int n)                                          // Set a field to a non negative value in this encoding. Unary and one hot are limited by the width of the field, binary and gray wrap.
+     {switch(this)
+       {case unary  -> f.fromUnary(n);
+        case binary -> f.fromInt(n);
+        case oneHot -> {final int v = min(n, f.width-1); for (int i = 0; i < f.width; ++i) f.set(i, i == v);}
+        default     -> f.fromInt(n ^ (n >> 1));
+       }
+     }
+   }
+
+  class Encode extends Instruction                                              // Set a field to a constant in the specified encoding
+   {final Layout.Field field;                                                   // Field to set
+    final int          value;                                                   // Value to set
+    final Encoding     encoding;                                                // Encoding of the field
+    Encode(Layout.Field Field, int Value, Encoding Encoding)                    // Record field, value and encoding
+     {field = Field; value = Value; encoding = Encoding;
+     }
+    void action() {encoding.encode(field, value);}                              // Perform instruction
+   }
+  Encode encode(Layout.Field field, int value, Encoding encoding)               // Set a field to a constant in the specified encoding
+   {return new Encode(field, value, encoding);
+   }
+
+  class InRange extends Instruction                                             // Check that a counter in the specified encoding lies between two constants inclusive
+   {final Layout.Field field;                                                   // Counter
+    final Layout.Bit   result;                                                  // Result
+    final int          low, high;                                               // Range
+    final Encoding     encoding;                                                // Encoding of the counter
+    InRange(Layout.Bit Result, Layout.Field Field, Encoding Encoding,           // Record result, counter and range
+            int Low, int High)
+     {result = Result; field = Field; encoding = Encoding; low = Low; high = High;
+     }
+    void action()                                                               // Perform instruction
+     {final int n = encoding.decode(field);
+      result.set(n >= low && n <= high);
+     }
+   }
+  InRange inRange(Layout.Bit result, Layout.Field field, Encoding encoding,     // Check that a counter in the specified encoding lies between two constants inclusive
+                  int low, int high)
+   {return new InRange(result, field, encoding, low, high);
+   }
+
+//D2 Search                                                                     // Search all the elements of an array at once
+
+  enum Match {equal, greaterThanOrEqual, greaterThan}                           // The comparison used to locate the first matching element of an array
+
+  class SearchAll extends Instruction                                           // Compare a search value against the same bits in every valid element of an array in one step, like a content addressable memory feeding a priority encoder
+   {final Layout.Array    array;                                                // Array to search
+    final int             offset;                                               // Offset of the bits to compare in each element
+    final int             length;                                               // Number of bits to compare
+    final Layout.Field    search;                                               // Value to search for
+    final Layout.Variable size;                                                 // Unary number of valid elements at the start of the array
+    final boolean         binarySize;                                           // The number of valid elements is binary rather than unary
+    final Match           match;                                                // Comparison that locates the first matching element
+    final Layout.Bit      found;                                                // Set to one if a valid element matches else zero
+    final Layout.Variable index;                                                // Index of the first matching element, unchanged if there is no match
+    final boolean         binary;                                               // The index is binary rather than unary
+    final Layout.Variable equal;                                                // Optional mask: bit i is set if valid element i is equal to the search value
+    final Layout.Variable greaterThanOrEqual;                                   // Optional mask: bit i is set if valid element i is greater than or equal to the search value
+
+    SearchAll(Layout.Array Array, int Offset, int Length, Layout.Field Search,
+              Layout.Variable Size, Match Match, Layout.Bit Found,
+              Layout.Variable Index, boolean Binary, boolean BinarySize,
+              Layout.Variable Equal, Layout.Variable GreaterThanOrEqual)
+     {array = Array; offset = Offset; length = Length; search = Search;
+      size  = Size;  match  = Match;  found  = Found;  index  = Index;
+      binary = Binary; binarySize = BinarySize;
+      equal = Equal; greaterThanOrEqual = GreaterThanOrEqual;
+      if (Search.width < Length) stop("Search value has", Search.width,
+        "bits but", Length, "bits are to be compared");
+     }
+
+    int compare(int i)                                                          // Compare element i with the search value from the most significant bit down
+     {for (int k = length-1; k >= 0; k--)
+       {final Boolean A = array.asLayout().get(array.bit(i, offset+k));
+        final Boolean B = search.get(k);
+        final boolean a = A != null && A, b = B != null && B;
+        if (a != b) return a ? +1 : -1;
+       }
+      return 0;
+     }
+
+    void action()                                                               // Perform instruction
+     {final int N = min(indexValue(size, binarySize), array.size);              // Number of valid elements
+      int first = -1;                                                           // First matching element
+      for (int i = 0; i < array.size; i++)                                      // Compare every element in parallel
+       {final int     c = i < N ? compare(i) : -1;                              // Invalid elements never match
+        final boolean e = i < N && c == 0, g = i < N && c >= 0;
+        if (equal              != null) equal             .set(i, e);
+        if (greaterThanOrEqual != null) greaterThanOrEqual.set(i, g);
+        final boolean m = match == Match.equal ? e :
+                          match == Match.greaterThan ? i < N && c > 0 : g;
+        if (m && first < 0) first = i;                                          // Priority encoder
+       }
+      found.set(first >= 0);
+      if (first < 0) return;                                                    // No match so leave the index unchanged
+      if (binary) index.fromInt(first); else index.fromUnary(first);
+     }
+   }
+  SearchAll searchAll(Layout.Array array, int offset, int length,               // Search the valid elements of an array for the first element matching a search value and return its index in unary
+    Layout.Field search, Layout.Variable size, Match match,
+    Layout.Bit found, Layout.Variable index)
+   {return new SearchAll(array, offset, length, search, size, match, found,
+                         index, false, false, null, null);
+   }
+  SearchAll searchAll(Layout.Array array, int offset, int length,               // Search the valid elements of an array for the first element matching a search value where the number of valid elements and the returned index are both unary or both binary
+    Layout.Field search, Layout.Variable size, Match match,
+    Layout.Bit found, Layout.Variable index, boolean binary)
+   {return new SearchAll(array, offset, length, search, size, match, found,
+                         index, binary, binary, null, null);
+   }
+  SearchAll searchAll(Layout.Array array, int offset, int length,               // Search the valid elements of an array for the first element matching a search value returning its index in unary or binary and masks showing the equal and greater than or equal elements
+    Layout.Field search, Layout.Variable size, Match match,
+    Layout.Bit found, Layout.Variable index, boolean binary,
+    Layout.Variable equal, Layout.Variable greaterThanOrEqual)
+   {return new SearchAll(array, offset, length, search, size, match, found,
+                         index, binary, false, equal, greaterThanOrEqual);
+   }
+
+  class FindFirstSet extends Instruction                                        // Find the first bit that is on in a bitmap at or after an optional binary starting position wrapping around at the end. On a chip this is a priority encoder.
+   {final Layout.Field    bitmap;                                               // Bitmap to search
+    final Layout.Variable start;                                                // Binary position at which to start searching or null to start at zero
+    final Layout.Bit      found;                                                // Whether a bit was found
+    final Layout.Variable index;                                                // Binary position of the bit found
+    FindFirstSet(Layout.Field Bitmap, Layout.Variable Start,                    // Record bitmap, start, and results
+                 Layout.Bit Found, Layout.Variable Index)
+     {bitmap = Bitmap; start = Start; found = Found; index = Index;
+     }
+    void action()                                                               // Perform instruction
+     {final int N = bitmap.width, s = start == null ? 0 : start.asInt() % N;
+      for (int i = 0; i < N; i++)
+       {final int j = (s + i) % N;
+        if (bitmap.get(j)) {found.set(true); index.fromInt(j); return;}
+       }
+      found.set(false);
+     }
+   }
+  FindFirstSet findFirstSet(Layout.Field bitmap, Layout.Bit found,              // Find the first bit that is on in a bitmap
+                            Layout.Variable index)
+   {return new FindFirstSet(bitmap, null, found, index);
+   }
+  FindFirstSet findFirstSet(Layout.Field bitmap, Layout.Variable start,         // Find the first bit that is on in a bitmap at or after a starting position wrapping around at the end
+                            Layout.Bit found, Layout.Variable index)
+   {return new FindFirstSet(bitmap, start, found, index);
+   }
+
+  class SetBitAt extends Instruction                                            // Set or clear the bit of a bitmap at a binary position held in a variable
+   {final Layout.Field    bitmap;                                               // Bitmap to update
+    final Layout.Variable index;                                                // Binary position of bit
+    final boolean         value;                                                // Value to set
+    SetBitAt(Layout.Field Bitmap, Layout.Variable Index, boolean Value)         // Record bitmap, position and value
+     {bitmap = Bitmap; index = Index; value = Value;
+     }
+    void action() {bitmap.set(index.asInt(), value);}                           // Perform instruction
+   }
+  SetBitAt setBitAt(Layout.Field bitmap, Layout.Variable index, boolean value)  // Set or clear the bit of a bitmap at a binary position held in a variable
+   {return new SetBitAt(bitmap, index, value);
+   }
+
 //D2 Arithmetic                                                                 // Integer arithmetic
 
   class Add extends Instruction                                                 // Add two equal sized fields containing positive integers in binary form to get a field of the same size by ignoring any overflow
@@ -245,6 +503,59 @@ say("AAAA", debug);
    }
   Dec dec(Layout.Field field) {return new Dec(field);}                          // Decrement a field containing a positive integer ignoring the result
 
+  class IncBy extends Instruction                                               // Add a constant or a variable to a field containing a unary or binary number in one step. A unary number is limited to the range zero to its width
+   {final Layout.Field    field;                                                // Field to increment
+    final int             by;                                                   // Constant amount to add which may be negative
+    final Layout.Variable amount;                                               // Variable amount to add encoded like the field or null if there is no variable amount
+    final Encoding        encoding;                                             // Encoding of the field and the variable amount
+    IncBy(Layout.Field Field, int By, Layout.Variable Amount, Encoding Encoding)// Record field and amounts
+     {field = Field; by = By; amount = Amount; encoding = Encoding;
+     }
+    void action()                                                               // Perform instruction
+     {final int n = by + indexValue(amount, encoding);                          // Amount to add
+      if (encoding == Encoding.binary) field.fromInt(field.asInt() + n);
+      else encoding.encode(field, max(0, encoding.decode(field) + n));
+     }
+   }
+  IncBy incBy(Layout.Field field, int by, boolean binary)                       // Add a constant to a field containing a unary or binary number
+   {return new IncBy(field, by, null, Encoding.of(binary));
+   }
+  IncBy incBy(Layout.Field field, Layout.Variable amount, boolean binary)       // Add a variable to a field where both contain unary numbers or both contain binary numbers
+   {return new IncBy(field, 0, amount, Encoding.of(binary));
+   }
+  IncBy incBy(Layout.Field field, int by, Encoding encoding)                    // Add a constant to a field containing a number in the specified encoding
+   {return new IncBy(field, by, null, encoding);
+   }
+  IncBy incBy(Layout.Field field, Layout.Variable amount, Encoding encoding)    // Add a variable to a field where both are held in the specified encoding
+   {return new IncBy(field, 0, amount, encoding);
+   }
+
+  class IncMod extends Instruction                                              // Increment a field containing a positive integer in binary form wrapping around to zero when the modulus is reached
+   {final Layout.Field field;                                                   // Field to increment
+    final int modulus;                                                          // Wrap to zero on reaching this value
+    IncMod(Layout.Field Field, int Modulus)                                     // Record field to increment and modulus
+     {if (Modulus < 1) stop("Modulus must be at least one, not:", Modulus);
+      field = Field; modulus = Modulus;
+     }
+    void action() {field.fromInt((field.asInt() + 1) % modulus);}               // Perform instruction
+   }
+  IncMod incMod(Layout.Field field, int modulus)                                // Increment a field containing a positive integer modulo the specified modulus
+   {return new IncMod(field, modulus);
+   }
+
+  class DecMod extends Instruction                                              // Decrement a field containing a positive integer in binary form wrapping around to one less than the modulus when zero is decremented
+   {final Layout.Field field;                                                   // Field to decrement
+    final int modulus;                                                          // Wrap from zero to one less than this value
+    DecMod(Layout.Field Field, int Modulus)                                     // Record field to decrement and modulus
+     {if (Modulus < 1) stop("Modulus must be at least one, not:", Modulus);
+      field = Field; modulus = Modulus;
+     }
+    void action() {field.fromInt((field.asInt() + modulus - 1) % modulus);}     // Perform instruction
+   }
+  DecMod decMod(Layout.Field field, int modulus)                                // Decrement a field containing a positive integer modulo the specified modulus
+   {return new DecMod(field, modulus);
+   }
+
 //D2 Boolean tests                                                              // Test the value of one field against another or a constant to get a boolean result
 //D3 Equals                                                                     // Test whether one field is equal to another or to a constant
 
@@ -703,42 +1014,52 @@ say("AAAA", debug);
    {final int N;                                                                // Width of fields to test
     final Layout.Field f1, f2;                                                  // Unary fields
     final Layout.Bit   r;                                                       // Result
+    final boolean      binary;                                                  // The fields hold binary rather than unary numbers
     UnaryFilled(Layout.Field F1, Layout.Field F2, Layout.Bit R)                 // Check that two unary fields fill the maximum value allowed
+     {this(F1, F2, R, F1.width, false);
+     }
+    UnaryFilled(Layout.Field F1, Layout.Field F2, Layout.Bit R,                 // Check that two fields both holding unary or binary numbers sum to the specified maximum
+                int Max, boolean Binary)
      {F1.sameSize(F2);
-      f1 = F1; f2 = F2; r = R;
-      N = f1.width;
+      f1 = F1; f2 = F2; r = R; N = Max; binary = Binary;
      }
-    void action()                                                               // Invert fields
-     {int n = 0;
-      for (int i = 0; i < N; i++) if (f1.get(i)) ++n;                           // Count bits in the first field
-      for (int i = 0; i < N; i++) if (f2.get(i)) ++n;                           // Count bits in the second field
-      r.set(n == N);                                                            // Unary is all ones
+    void action()                                                               // Count the bits in each field rather than testing them one by one
+     {r.set(indexValue(f1, binary) + indexValue(f2, binary) == N);
      }
    }
   UnaryFilled unaryFilled(Layout.Field F1, Layout.Field F2, Layout.Bit R)       // Check that two unary fields fill the maximum value allowed
    {return new UnaryFilled(F1, F2, R);
    }
+  UnaryFilled unaryFilled(Layout.Field F1, Layout.Field F2, Layout.Bit R,       // Check that two fields both holding unary or binary numbers sum to the specified maximum
+                          int Max, boolean Binary)
+   {return new UnaryFilled(F1, F2, R, Max, Binary);
+   }
 
   class UnaryFilledMinusOne extends Instruction                                 // Check that two unary fields fill the maximum value allowed minus one
    {final int N;                                                                // Width of fields to test
     final Layout.Field f1, f2;                                                  // Unary fields, intermediate result
     final Layout.Bit   r;                                                       // Result
+    final boolean      binary;                                                  // The fields hold binary rather than unary numbers
     UnaryFilledMinusOne(Layout.Field F1, Layout.Field F2, Layout.Bit R)         // Check that two unary fields fill the maximum value allowed
+     {this(F1, F2, R, F1.width, false);
+     }
+    UnaryFilledMinusOne(Layout.Field F1, Layout.Field F2, Layout.Bit R,         // Check that two fields both holding unary or binary numbers sum to one less than the specified maximum
+                        int Max, boolean Binary)
      {F1.sameSize(F2);
-      f1 = F1; f2 = F2; r = R;
-      N = f1.width;
+      f1 = F1; f2 = F2; r = R; N = Max; binary = Binary;
      }
-    void action()                                                               // Invert fields
-     {int n = 0;
-      for (int i = 0; i < N; i++) if (f1.get(i)) ++n;                           // Count bits in the first field
-      for (int i = 0; i < N; i++) if (f2.get(i)) ++n;                           // Count bits in the second field
-      r.set(n == N-1);                                                          // Unary has just one zero
+    void action()                                                               // Count the bits in each field rather than testing them one by one
+     {r.set(indexValue(f1, binary) + indexValue(f2, binary) == N-1);            // Just one short of full
      }
    }
   UnaryFilledMinusOne unaryFilledMinusOne                                       // Check that two unary fields fill the maximum value allowed
    (Layout.Field F1, Layout.Field F2, Layout.Bit R)
    {return new UnaryFilledMinusOne(F1, F2, R);
    }
+  UnaryFilledMinusOne unaryFilledMinusOne                                       // Check that two fields both holding unary or binary numbers sum to one less than the specified maximum
+   (Layout.Field F1, Layout.Field F2, Layout.Bit R, int Max, boolean Binary)
+   {return new UnaryFilledMinusOne(F1, F2, R, Max, Binary);
+   }
 
   class ConvertUnaryToBinary extends Instruction                                // Convert a unary value to binary
    {final Layout.Variable source, target;                                       // Unary source, binary target
@@ -746,9 +1067,7 @@ say("AAAA", debug);
      {source = Source; target = Target;
      }
     void action()                                                               // Invert fields
-     {int n = 0;
-      for (int i = 0; i < source.width; i++) if (source.get(i)) ++n;            // Count bits in unary
-      target.fromInt(n);
+     {target.fromInt(source.asUnary());                                         // Count bits in unary
      }
    }
   ConvertUnaryToBinary convertUnaryToBinary                                     // Check that two unary fields fill the maximum value allowed
@@ -771,6 +1090,123 @@ say("AAAA", debug);
    {return new ConvertBinaryToUnary(target, source);
    }
 
+//D2 Unary arithmetic                                                           // Arithmetic on whole unary numbers in one instruction rather than one shift per unit
+
+  abstract class UnaryArithmetic extends Instruction                            // Combine two numbers held both in unary or both in binary to get a result in the same encoding clamped at zero below and, for unary, at the width of the result above
+   {final Layout.Field result, f1, f2;                                          // Result, operands
+    final Encoding encoding;                                                    // Encoding of the fields
+    UnaryArithmetic(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // Record result and operands
+                    Encoding Encoding)
+     {result = Result; f1 = F1; f2 = F2; encoding = Encoding;
+     }
+    abstract int op(int a, int b);                                              // The operation to perform on the values of the operands
+    void action()                                                               // Perform instruction
+     {encoding.encode(result, max(0, op(encoding.decode(f1), encoding.decode(f2))));
+     }
+   }
+
+  class UnaryAdd extends UnaryArithmetic                                        // Add two unary numbers
+   {UnaryAdd(Layout.Field R, Layout.Field F1, Layout.Field F2, Encoding E) {super(R, F1, F2, E);}
+    int op(int a, int b) {return a + b;}
+   }
+  UnaryAdd unaryAdd(Layout.Field Result, Layout.Field F1, Layout.Field F2)      // Add two unary numbers
+   {return new UnaryAdd(Result, F1, F2, Encoding.unary);
+   }
+  UnaryAdd unaryAdd(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // Add two numbers both held in unary or both in binary
+                    boolean Binary)
+   {return new UnaryAdd(Result, F1, F2, Encoding.of(Binary));
+   }
+
+  class UnarySub extends UnaryArithmetic                                        // Subtract the second unary number from the first stopping at zero
+   {UnarySub(Layout.Field R, Layout.Field F1, Layout.Field F2, Encoding E) {super(R, F1, F2, E);}
+    int op(int a, int b) {return a - b;}
+   }
+  UnarySub unarySub(Layout.Field Result, Layout.Field F1, Layout.Field F2)      // Subtract the second unary number from the first stopping at zero
+   {return new UnarySub(Result, F1, F2, Encoding.unary);
+   }
+  UnarySub unarySub(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // Subtract the second number from the first stopping at zero where both are held in unary or both in binary
+                    boolean Binary)
+   {return new UnarySub(Result, F1, F2, Encoding.of(Binary));
+   }
+
+  class UnaryMin extends UnaryArithmetic                                        // The smaller of two unary numbers
+   {UnaryMin(Layout.Field R, Layout.Field F1, Layout.Field F2, Encoding E) {super(R, F1, F2, E);}
+    int op(int a, int b) {return min(a, b);}
+   }
+  UnaryMin unaryMin(Layout.Field Result, Layout.Field F1, Layout.Field F2)      // The smaller of two unary numbers
+   {return new UnaryMin(Result, F1, F2, Encoding.unary);
+   }
+  UnaryMin unaryMin(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // The smaller of two numbers both held in unary or both in binary
+                    boolean Binary)
+   {return new UnaryMin(Result, F1, F2, Encoding.of(Binary));
+   }
+
+  class UnaryMax extends UnaryArithmetic                                        // The larger of two unary numbers
+   {UnaryMax(Layout.Field R, Layout.Field F1, Layout.Field F2, Encoding E) {super(R, F1, F2, E);}
+    int op(int a, int b) {return max(a, b);}
+   }
+  UnaryMax unaryMax(Layout.Field Result, Layout.Field F1, Layout.Field F2)      // The larger of two unary numbers
+   {return new UnaryMax(Result, F1, F2, Encoding.unary);
+   }
+  UnaryMax unaryMax(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // The larger of two numbers both held in unary or both in binary
+                    boolean Binary)
+   {return new UnaryMax(Result, F1, F2, Encoding.of(Binary));
+   }
+
+  class UnaryLessThan extends Instruction                                       // Check that the first unary number is less than the second regardless of the widths of the fields holding them
+   {final Layout.Field f1, f2;                                                  // Operands
+    final Layout.Bit   result;                                                  // Result
+    final Encoding     encoding;                                                // Encoding of the fields
+    UnaryLessThan(Layout.Bit Result, Layout.Field F1, Layout.Field F2,          // Record result and operands
+                  Encoding Encoding)
+     {result = Result; f1 = F1; f2 = F2; encoding = Encoding;
+     }
+    void action()                                                               // Perform instruction
+     {result.set(encoding.decode(f1) < encoding.decode(f2));
+     }
+   }
+  UnaryLessThan unaryLessThan(Layout.Bit Result, Layout.Field F1,               // Check that the first unary number is less than the second
+                              Layout.Field F2)
+   {return new UnaryLessThan(Result, F1, F2, Encoding.unary);
+   }
+  UnaryLessThan unaryLessThan(Layout.Bit Result, Layout.Field F1,               // Check that the first number is less than the second where both are held in unary or both in binary
+                              Layout.Field F2, boolean Binary)
+   {return new UnaryLessThan(Result, F1, F2, Encoding.of(Binary));
+   }
+
+  class PopCount extends Instruction                                            // Count the bits that are on in a field to get a binary number
+   {final Layout.Field source;                                                  // Field whose bits are to be counted
+    final Layout.Field target;                                                  // Binary count
+    PopCount(Layout.Field Target, Layout.Field Source)                          // Record target and source
+     {target = Target; source = Source;
+     }
+    void action() {target.fromInt(source.asUnary());}                           // Perform instruction
+   }
+  PopCount popCount(Layout.Field Target, Layout.Field Source)                   // Count the bits that are on in a field to get a binary number
+   {return new PopCount(Target, Source);
+   }
+
+  UnaryAdd unaryAdd(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // Add two numbers held in the specified encoding
+                    Encoding Encoding)
+   {return new UnaryAdd(Result, F1, F2, Encoding);
+   }
+  UnarySub unarySub(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // Subtract the second number from the first stopping at zero where both are held in the specified encoding
+                    Encoding Encoding)
+   {return new UnarySub(Result, F1, F2, Encoding);
+   }
+  UnaryMin unaryMin(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // The smaller of two numbers held in the specified encoding
+                    Encoding Encoding)
+   {return new UnaryMin(Result, F1, F2, Encoding);
+   }
+  UnaryMax unaryMax(Layout.Field Result, Layout.Field F1, Layout.Field F2,      // The larger of two numbers held in the specified encoding
+                    Encoding Encoding)
+   {return new UnaryMax(Result, F1, F2, Encoding);
+   }
+  UnaryLessThan unaryLessThan(Layout.Bit Result, Layout.Field F1,               // Check that the first number is less than the second where both are held in the specified encoding
+                              Layout.Field F2, Encoding Encoding)
+   {return new UnaryLessThan(Result, F1, F2, Encoding);
+   }
+
 //D1 Branch instructions                                                        // Instructions that alter the flow of execution of the code
 
 //D2 Constant comparison                                                        // Compare the value of a field  with a constant value to determine whether to branch or not
@@ -1037,11 +1473,9 @@ say("AAAA", debug);
       counter = Counter;                                                        // Field to be used as a counter
       limit   = Limit;                                                          // Field to be used as limit
       ones(counter);                                                            // Start the counter at the maximum
-      final BranchOnCompare test = branchIfEqual(counter, limit);               // Exit the loop if we are at the limit
-      block();                                                                  // Block of code supplied by caller
-      shiftRightOneByZero(counter);                                             // Next counter value
-      goTo(test);                                                               // Restart loop
-      comeFromComparison(test);                                                 // Exit the loop
+      new Loop(counter, false, -1, limit)                                       // Decrement the counter until it reaches the limit
+       {void code() {block();}                                                  // Block of code supplied by caller
+       };
      }
     void action() {}
     abstract void block();                                                      // Block of code to execute on each iteration
@@ -1049,33 +1483,19 @@ say("AAAA", debug);
 
   abstract class For extends Instruction                                        // Iterate over an array
    {Layout.Array     array;                                                     // Array being iterated
-    Layout           layout;
-    Layout.Variable  counter;
-    Layout.Variable  limit;
-    Layout.Bit       atEnd;
-    Layout.Structure struct;
-    Instruction      start;
-    Branch           finished;
+    Layout           layout;                                                    // Layout of the loop counter
+    Layout.Variable  counter;                                                   // Unary index of the current element
 
     For(Layout.Array Array)                                                     // Iterate over an array
      {name    = "For";
       array   = Array;
       layout  = new Layout();
       counter = layout.variable ("counter", array.size);
-      limit   = layout.variable ("limit",   array.size);
-      atEnd   = layout.bit      ("atEnd");
-      layout.layout("struct", counter, limit, atEnd);
-      limit.ones();
-
-      start = lessThan(atEnd, counter, limit);
-      finished = branchIfZero(atEnd);
-
-      setIndexFromUnary(array, counter);
-      block();
+      layout.layout(counter);
 
-      shiftLeftOneByOne(counter);
-      goTo(start);
-      comeFrom(finished);
+      new Loop(counter, false, 1, false, null, array.size, array, null)         // Index each element of the array in turn
+       {void code() {block();}                                                  // Block of code supplied by caller
+       };
      }
     void action() {counter.zero();}                                             // Initialize for loop
     abstract void block();                                                      // Block of code to execute on each iteration
@@ -1091,6 +1511,7 @@ say("AAAA", debug);
       new Continue(this);
       end = nop();                                                              // End of block
      }
+    Repeat(boolean doNothing) {super(true);}                                    // Define the repeat block without generating any code
     void action() {repeats = 0;}                                                // Reset repetition count every time we start the repeat block
     class Continue extends GoTo                                                 // Continue a block by going to its start no more than a specified number of times
      {Continue(Instruction instruction) {super(instruction);}                   // Backward goto
@@ -1105,6 +1526,65 @@ say("AAAA", debug);
      }
    }
 
+  abstract class Loop extends Repeat                                            // Counted loop. The loop register is tested once on entry, then an EndLoop instruction at the bottom of the loop steps it, tests it, indexes an optional array and branches back in one dispatch instead of separate compare, branch, step and goto instructions.
+   {final Layout.Field counter;                                                 // Loop register
+    final boolean      binary;                                                  // The loop register and limit are binary rather than unary
+    final int          step;                                                    // Amount added to the loop register on each iteration
+    final boolean      stepFirst;                                               // Step the loop register before each iteration rather than after it
+    final Layout.Field limit;                                                   // The loop ends when the loop register reaches the value of this field or null to use a constant limit
+    final int          limitValue;                                              // Constant limit used when there is no limit field
+    final Layout.Array array;                                                   // Array to index with the loop register on each iteration or null
+    final Layout.Bit   exit;                                                    // The loop ends early when this bit is one or null if there is no early exit
+
+    Loop(Layout.Field Counter, boolean Binary, int Step, Layout.Field Limit)    // Step a loop register after each iteration until it reaches a limit
+     {this(Counter, Binary, Step, false, Limit, 0, null, null);
+     }
+
+    Loop(Layout.Field Counter, boolean Binary, int Step, boolean StepFirst,     // Fully specified counted loop
+         Layout.Field Limit, int LimitValue, Layout.Array Array, Layout.Bit Exit)
+     {super(true);
+      name    = "Loop";
+      counter = Counter; binary     = Binary;     step  = Step; stepFirst = StepFirst;
+      limit   = Limit;   limitValue = LimitValue; array = Array; exit      = Exit;
+      code();                                                                   // Body of the loop
+      new EndLoop();                                                            // Step, test and branch back
+      end = nop();                                                              // End of loop
+     }
+
+    boolean finished()                                                          // Whether the loop register has reached its limit or the early exit has been requested
+     {final int c = indexValue(counter, binary);
+      final int l = limit != null ? indexValue(limit, binary) : limitValue;
+      return c == l || exit != null && exit.get(0);
+     }
+
+    void advance()                                                              // Step the loop register
+     {final int c = indexValue(counter, binary) + step;
+      if (binary) counter.fromInt(c); else counter.fromUnary(max(0, c));
+     }
+
+    void index()                                                                // Index the array with the loop register
+     {if (array != null) array.setIndex(indexValue(counter, binary));
+     }
+
+    void action()                                                               // Enter the loop unless it is already finished
+     {repeats = 0;
+      if (finished()) {setInstructionIndex(end.position); return;}              // Skip the loop
+      if (stepFirst) advance();
+      index();
+     }
+
+    class EndLoop extends Instruction                                           // Step the loop register and branch back to the start of the loop unless the loop has finished
+     {EndLoop() {name = "EndLoop";}                                             // Name the instruction after the inner class rather than the loop
+      void action()
+       {if (!stepFirst) advance();
+        if (finished()) return;                                                 // Fall through to the end of the loop
+        if (stepFirst) advance();
+        index();
+        setInstructionIndex(Loop.this.position);                                // First instruction of the body of the loop
+       }
+     }
+   }
+
   class SetIndex extends Instruction                                            // Set the index of an array from a field interpreted as a binary integer
    {final Layout.Array    array;                                                // Array to index
     final Layout.Variable index;                                                // Index
@@ -1151,6 +1631,35 @@ say("AAAA", debug);
    {return new SetIndexFromUnary(Array, Index);
    }
 
+  class SetIndexRotated extends Instruction                                     // Set the index of an array to an offset from a binary head position wrapping around the end of the array as in a ring buffer
+   {final Layout.Array    array;                                                // Array to index
+    final Layout.Variable head;                                                 // Binary index of the element at logical position zero
+    final Layout.Variable index;                                                // Unary logical index or null if only the offset is to be used
+    final boolean         binary;                                               // The logical index is binary rather than unary
+    final int             offset;                                               // Constant added to the logical index
+    SetIndexRotated(Layout.Array Array, Layout.Variable Head,                   // Array, head, logical index, offset
+                    Layout.Variable Index, boolean Binary, int Offset)
+     {array = Array; head = Head; index = Index; binary = Binary; offset = Offset;
+     }
+    void action()                                                               // Set the index for the indicated array to the physical position of the logical index
+     {final int i = indexValue(index, binary);                                  // Logical index
+      final int N = array.size;
+      array.setIndex(((head.asInt() + i + offset) % N + N) % N);                // Physical index wrapping around the array
+     }
+   }
+  SetIndexRotated setIndexRotated(Layout.Array Array, Layout.Variable Head,     // Index an array at a unary logical index relative to a binary head
+    Layout.Variable Index)
+   {return new SetIndexRotated(Array, Head, Index, false, 0);
+   }
+  SetIndexRotated setIndexRotated(Layout.Array Array, Layout.Variable Head,     // Index an array at a unary or binary logical index relative to a binary head
+    Layout.Variable Index, boolean Binary)
+   {return new SetIndexRotated(Array, Head, Index, Binary, 0);
+   }
+  SetIndexRotated setIndexRotated(Layout.Array Array, Layout.Variable Head,     // Index an array at a constant logical index relative to a binary head
+    int Offset)
+   {return new SetIndexRotated(Array, Head, null, false, Offset);
+   }
+
 // D2 Block                                                                     // A block of code can be easily exited on a condition making it behave rather like a subroutine with a return
 
   abstract class Block extends Instruction                                      // A block of code acts like an instruction
@@ -2049,13 +2558,10 @@ V   88     8                 18       c     s.c
     m.codeOk("""
 Line                    OpCode Target
    1                       For
-   2                  LessThan
-   3              BranchIfZero      8
-   4         SetIndexFromUnary
-   5                      Copy
-   6         ShiftLeftOneByOne
-   7                      GoTo      2
-   8                  ComeFrom
+   2                      Loop
+   3                      Copy
+   4                   EndLoop
+   5                       Nop
 """);
 
     m.execute();
@@ -2369,6 +2875,108 @@ B   13     1                  1     r2     r2
 """);
    }
 
+  static void test_encoding()
+   {for (Encoding e : Encoding.values())
+     {final Layout          l = new Layout();
+      final Layout.Variable v = l.variable("v", e.width(9));
+      l.layout(v);
+      for (int i = 0; i <= 9; i++) {e.encode(v, i); ok(e.decode(v), i);}        // Round trip
+     }
+    final Layout          l = new Layout();
+    final Layout.Variable g = l.variable("g", Encoding.gray  .width(7));
+    final Layout.Variable o = l.variable("o", Encoding.oneHot.width(7));
+    final Layout.Bit      r = l.bit     ("r");
+    l.layout("s", g, o, r);
+    Encoding.gray  .encode(g, 5);
+    Encoding.oneHot.encode(o, 5);
+    ok(g.asInt(), 7);                                                           // 5 is 111 in gray
+    ok(o.asInt(), 32);
+
+    BitMachine m = new BitMachine();
+    m.incBy  (g, 2, Encoding.gray);
+    m.inRange(r, g, Encoding.gray, 7, 7);
+    m.encode (o, 0, Encoding.oneHot);
+    m.execute();
+    ok(Encoding.gray.decode(g), 7);
+    ok(r.get(), true);
+    ok(o.asInt(), 1);
+   }
+
+  static void test_find_first_set()
+   {Layout           l = new Layout();
+    Layout.Variable  b = l.variable("b", 8);
+    Layout.Variable  s = l.variable("s", 3);
+    Layout.Variable  i = l.variable("i", 3);
+    Layout.Variable  j = l.variable("j", 3);
+    Layout.Variable  k = l.variable("k", 3);
+    Layout.Bit       f = l.bit     ("f");
+    Layout.Bit       g = l.bit     ("g");
+    Layout.Bit       h = l.bit     ("h");
+    l.layout("l", b, s, i, j, k, f, g, h);
+    b.fromInt(0b00100100);
+    s.fromInt(3);
+
+    BitMachine m = new BitMachine();
+    m.findFirstSet(b, f, i);                                                    // From the start
+    m.findFirstSet(b, s, g, j);                                                 // From a starting position
+    m.setBitAt    (b, i, false);
+    m.setBitAt    (b, j, false);
+    m.findFirstSet(b, h, k);                                                    // Nothing left
+    m.setBitAt    (b, s, true);
+    m.findFirstSet(b, j, g, k);                                                 // Wraps around from the end
+    m.execute();
+    ok(f.get(), true);  ok(i.asInt(), 2);
+    ok(g.get(), true);  ok(j.asInt(), 5);
+    ok(h.get(), false);
+    ok(k.asInt(), 3);
+    ok(b.asInt(), 0b00001000);
+   }
+
+  static void test_unary_arithmetic()
+   {Layout           l = new Layout();
+    Layout.Variable  a = l.variable("a", 4);
+    Layout.Variable  b = l.variable("b", 4);
+    Layout.Variable  s = l.variable("s", 4);
+    Layout.Variable  d = l.variable("d", 4);
+    Layout.Variable  z = l.variable("z", 4);
+    Layout.Variable  n = l.variable("n", 4);
+    Layout.Variable  x = l.variable("x", 4);
+    Layout.Variable  p = l.variable("p", 3);
+    Layout.Bit      r1 = l.bit("r1");
+    Layout.Bit      r2 = l.bit("r2");
+    Layout.Variable  e = l.variable("e", 3);
+    Layout.Variable  f = l.variable("f", 3);
+    Layout.Variable  g = l.variable("g", 3);
+    Layout.Bit      r3 = l.bit("r3");
+    l.layout("s", a, b, s, d, z, n, x, p, r1, r2, e, f, g, r3);
+
+    a.fromUnary(3); b.fromUnary(2);
+    e.fromInt(6);   f.fromInt(3);
+
+    BitMachine m = new BitMachine();
+    m.unaryAdd     (s, a, b);                                                   // Clamped to the width of the result
+    m.unarySub     (d, a, b);
+    m.unarySub     (z, b, a);                                                   // Stops at zero
+    m.unaryMin     (n, a, b);
+    m.unaryMax     (x, a, b);
+    m.popCount     (p, a);
+    m.unaryLessThan(r1, a, b);
+    m.unaryLessThan(r2, b, a);
+    m.unarySub     (g, e, f, true);                                             // Binary
+    m.unaryLessThan(r3, f, e, true);
+    m.execute();
+    ok(s.asUnary(), 4);
+    ok(d.asUnary(), 1);
+    ok(z.asUnary(), 0);
+    ok(n.asUnary(), 2);
+    ok(x.asUnary(), 3);
+    ok(p.asInt(),   3);
+    ok(r1.get(), false);
+    ok(r2.get(), true);
+    ok(g.asInt(),   3);
+    ok(r3.get(), true);
+   }
+
   static void test_set_index()
    {final int N = 4;
     Layout           l = new Layout();
@@ -2525,6 +3133,166 @@ V   88     8                 18       c     s.c
 """);
   }
 
+  static void test_move_range()
+   {final int N = 6;
+    Layout           l = new Layout();
+    Layout.Variable  a = l.variable ("a", 4);
+    Layout.Variable  b = l.variable ("b", 4);
+    Layout.Structure s = l.structure("s", a, b);
+    Layout.Array     A = l.array    ("A", s, N);
+    Layout.Variable  i = l.variable ("i", N);
+    l.layout("S", A, i);
+
+    for (int j = 0; j < N; j++)
+     {A.setIndex(j);
+      a.fromInt(j+1);
+      b.fromInt(j+9);
+     }
+
+    BitMachine m = new BitMachine();
+    m.moveRange(A, 0, N-2, 1);                                                  // Up one overlapping
+    m.execute();
+    ok(values(A, a), "1 1 2 3 4 5");
+
+    m.reset();
+    m.moveRange(A, 2, N-1, -2);                                                 // Down two overlapping
+    m.execute();
+    ok(values(A, a), "2 3 4 5 4 5");
+
+    m.reset();
+    i.fromUnary(1);
+    m.moveRange(A, i, 1, N-2, 1);                                               // From a unary index plus one
+    m.execute();
+    ok(values(A, a), "2 3 4 4 5 4");
+    A.setIndex(5);
+    ok(b.asInt(), 12);                                                          // The whole element moved
+   }
+
+  static void test_rotated()
+   {final int N = 5;
+    Layout           l = new Layout();
+    Layout.Variable  a = l.variable ("a", 4);
+    Layout.Array     A = l.array    ("A", a, N);
+    Layout.Variable  h = l.variable ("h", 3);
+    Layout.Variable  i = l.variable ("i", N);
+    Layout.Variable  b = l.variable ("b", 4);
+    Layout.Variable  c = l.variable ("c", 4);
+    Layout.Variable  d = l.variable ("d", 4);
+    l.layout("S", A, h, i, b, c, d);
+
+    for (int j = 0; j < N; j++) {A.setIndex(j); a.fromInt(j+1);}
+
+    BitMachine m = new BitMachine();
+    m.incMod(h, N); m.incMod(h, N); m.incMod(h, N);                             // Head at 3
+    i.fromUnary(3);
+    m.setIndexRotated(A, h, i);  m.copy(b, a);                                  // Wraps to 1
+    m.setIndexRotated(A, h, -1); m.copy(c, a);                                  // Just before the head
+    m.decMod(h, N); m.decMod(h, N); m.decMod(h, N); m.decMod(h, N);             // Wraps below zero to 4
+    m.setIndexRotated(A, h, 0);  m.copy(d, a);
+    m.execute();
+    ok(b.asInt(), 2);
+    ok(c.asInt(), 3);
+    ok(h.asInt(), 4);
+    ok(d.asInt(), 5);
+   }
+
+  static void test_loop()
+   {Layout           l = new Layout();
+    Layout.Variable  i = l.variable ("i", 5);
+    Layout.Variable  n = l.variable ("n", 5);
+    Layout.Variable  j = l.variable ("j", 5);
+    Layout.Variable  e = l.variable ("e", 5);
+    Layout.Bit       x = l.bit      ("x");
+    Layout.Variable  u = l.variable ("u", 4);
+    Layout.Variable  v = l.variable ("v", 4);
+    Layout.Variable  d = l.variable ("d", 4);
+    l.layout("s", i, n, j, e, x, u, v, d);
+    n.fromInt(20);
+    v.fromUnary(1);
+
+    BitMachine m = new BitMachine();
+    m.new Loop(i, true, 1, n)                                                   // More iterations than a repeat block allows
+     {void code() {m.inc(j);}
+     };
+    m.new Loop(i, true, -1, false, null, 0, null, x)                            // Count down with an early exit
+     {void code()
+       {m.inc(e);
+        m.Equals(x, e, 5);
+       }
+     };
+    m.new DownTo(u, v)                                                          // From four down to one in unary
+     {void block() {m.inc(d);}
+     };
+    m.execute();
+    ok(j.asInt(), 20);
+    ok(i.asInt(), 15);
+    ok(e.asInt(),  5);
+    ok(d.asInt(),  3);
+   }
+
+  static String values(Layout.Array A, Layout.Variable a)                       // Values of a field in each element of an array
+   {final StringBuilder s = new StringBuilder();
+    for (int j = 0; j < A.size; j++)
+     {A.setIndex(j);
+      s.append(" "+a.asInt());
+     }
+    return s.toString().trim();
+   }
+
+  static void test_search_all()
+   {final int N = 6;
+    Layout           l = new Layout();
+    Layout.Variable  k = l.variable ("k", 4);
+    Layout.Variable  d = l.variable ("d", 4);
+    Layout.Structure s = l.structure("s", k, d);
+    Layout.Array     A = l.array    ("A", s, N);
+    Layout.Variable  n = l.variable ("n", N);
+    Layout.Variable  v = l.variable ("v", 4);
+    Layout.Bit       f = l.bit      ("f");
+    Layout.Variable  u = l.variable ("u", N);
+    Layout.Variable  b = l.variable ("b", 3);
+    Layout.Variable  e = l.variable ("e", N);
+    Layout.Variable  g = l.variable ("g", N);
+    l.layout("S", A, n, v, f, u, b, e, g);
+
+    for (int j = 0; j < N; j++)
+     {A.setIndex(j);
+      k.fromInt(2*j+1);
+      d.fromInt(j);
+     }
+    n.fromUnary(4);                                                             // Valid keys: 1 3 5 7
+
+    BitMachine m = new BitMachine();
+    v.fromInt(5);
+    m.searchAll(A, 0, 4, v, n, Match.equal, f, u, false, e, g);
+    m.execute();
+    ok(f.get(), true);
+    ok(u.asUnary(), 2);
+    ok(e.asString(), "000100");
+    ok(g.asString(), "001100");
+
+    m.reset();
+    v.fromInt(4);
+    m.searchAll(A, 0, 4, v, n, Match.greaterThanOrEqual, f, b, true, e, g);
+    m.execute();
+    ok(f.get(), true);
+    ok(b.asInt(), 2);
+    ok(e.asString(), "000000");
+
+    m.reset();
+    v.fromInt(9);                                                               // Beyond the valid elements
+    m.searchAll(A, 0, 4, v, n, Match.equal, f, u);
+    m.execute();
+    ok(f.get(), false);
+    ok(u.asUnary(), 2);                                                         // Unchanged
+
+    m.reset();
+    v.fromInt(5);
+    m.searchAll(A, 0, 4, v, n, Match.greaterThan, f, b, true, null, null);
+    m.execute();
+    ok(b.asInt(), 3);
+   }
+
   static void oldTests()                                                        // Tests thought to be in good shape
    {test_zero_and_ones();
     test_invert();
@@ -2549,9 +3317,16 @@ V   88     8                 18       c     s.c
     test_repeat();
     test_inc_dec();
     test_unary_filled();
+    test_unary_arithmetic();
+    test_encoding();
+    test_find_first_set();
     test_set_index();
     test_return_regardless();
     test_copy_long();
+    test_move_range();
+    test_search_all();
+    test_rotated();
+    test_loop();
    }
 
   static void newTests()                                                        // Tests being worked on
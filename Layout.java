@@ -5,6 +5,7 @@
 package com.AppaApps.Silicon;                                                   // Simulate a silicon chip.
 // Make layout() create a structure if given multiple fields as this will reduce repetition
 import java.util.*;
+import java.util.function.*;
 
 //D1 Construct                                                                  // Layout a description of the memory used by a chip
 
@@ -61,6 +62,13 @@ public class Layout extends Test implements LayoutAble
 
   Field asFields() {return top;}                                                // Get field definitions associated with memory
 
+  String padding()                                                              // Report the padding bits added to align fields in each structure and array
+   {final StringBuilder s = new StringBuilder();
+    s.append(String.format("%7s  %s\n", "Padding", "Field"));
+    if (top != null) top.printPadding(top, s);
+    return s.toString();
+   }
+
   Field field(LayoutAble field)
    {if      (field instanceof Layout l) return l.top;
     else if (field instanceof Field  f) return f;
@@ -88,6 +96,8 @@ public class Layout extends Test implements LayoutAble
 
   static int unary(int binary) {return (1<<binary) - 1;}                        // Convert a binary integer to a unary integer of the same value
 
+  static int roundUp(int n, int align) {return (n+align-1) / align * align;}    // Round up to the next multiple of an alignment
+
   Variable dupVariable(String name)                                             // Create a variable like the named one in the layout
    {return get(name).duplicate().asField().toVariable();
    }
@@ -106,11 +116,131 @@ public class Layout extends Test implements LayoutAble
     static int memories = 0;
     final int memoryNumber = ++memories;                                        // Number the memory to make assist debugging
     Memory()                                                                    // A memory large enough to hold the layout
-     {if (top != null) for (int i = 0; i < top.width; i++) push(false);         // Initialize memory to zeros as this simplifies debugging
+     {if (top == null) return;                                                  // Initialize memory to zeros as this simplifies debugging
+      elementData  = new Object[top.width];                                     // Fill the backing array in one pass rather than pushing each bit
+      Arrays.fill(elementData, false);
+      elementCount = top.width;
      }
     Memory(Memory source)                                                       // Make a copy of a memory
      {for(Boolean b: source) push(b);
      }
+
+    static final int pageSize = 64;                                             // Number of bits in each page copied on write to a snapshot
+    transient final Stack<Snapshot> snapshots = new Stack<>();                  // Snapshots still sharing pages with this memory
+
+    public Boolean set(int i, Boolean b)                                        // Set a bit after preserving its page in any snapshots
+     {preserve(i);
+      return super.set(i, b);
+     }
+
+    public void setElementAt(Boolean b, int i)                                  // Set a bit after preserving its page in any snapshots
+     {preserve(i);
+      super.setElementAt(b, i);
+     }
+
+    private void preserve(int i)                                                // Copy the page containing a bit into each snapshot still sharing that page before the bit is changed
+     {if (snapshots.size() == 0) return;                                        // No snapshots so nothing to preserve
+      final int p = i / pageSize;
+      for(Snapshot s : snapshots) s.preserve(p);
+     }
+
+    private void preserveFrom(int i)                                            // Copy every page from the one containing the specified bit onwards into each snapshot before bits are inserted, removed or reordered
+     {if (snapshots.size() == 0) return;                                        // No snapshots so nothing to preserve
+      for(Snapshot s : snapshots)
+       {for (int p = i / pageSize; p < s.pages.length; p++) s.preserve(p);
+       }
+     }
+
+    public boolean add(Boolean b) {preserveFrom(size()); return super.add(b);}  // Mutators inherited from Stack preserve the pages they might change in any snapshots
+    public void addElement(Boolean b)
+     {preserveFrom(size()); super.addElement(b);
+     }
+    public void add(int i, Boolean b) {preserveFrom(i); super.add(i, b);}
+    public void insertElementAt(Boolean b, int i)
+     {preserveFrom(i); super.insertElementAt(b, i);
+     }
+    public boolean addAll(Collection<? extends Boolean> c)
+     {preserveFrom(size()); return super.addAll(c);
+     }
+    public boolean addAll(int i, Collection<? extends Boolean> c)
+     {preserveFrom(i); return super.addAll(i, c);
+     }
+    public Boolean remove(int i) {preserveFrom(i); return super.remove(i);}
+    public void removeElementAt(int i)
+     {preserveFrom(i); super.removeElementAt(i);
+     }
+    public boolean remove(Object o) {preserveFrom(0); return super.remove(o);}
+    public boolean removeElement(Object o)
+     {preserveFrom(0); return super.removeElement(o);
+     }
+    public boolean removeAll(Collection<?> c)
+     {preserveFrom(0); return super.removeAll(c);
+     }
+    public boolean retainAll(Collection<?> c)
+     {preserveFrom(0); return super.retainAll(c);
+     }
+    public boolean removeIf(Predicate<? super Boolean> f)
+     {preserveFrom(0); return super.removeIf(f);
+     }
+    public void replaceAll(UnaryOperator<Boolean> f)
+     {preserveFrom(0); super.replaceAll(f);
+     }
+    public void sort(Comparator<? super Boolean> c) {preserveFrom(0); super.sort(c);}
+    protected void removeRange(int f, int t)
+     {preserveFrom(f); super.removeRange(f, t);
+     }
+    public void clear() {preserveFrom(0); super.clear();}
+    public void removeAllElements() {preserveFrom(0); super.removeAllElements();}
+    public void setSize(int n) {preserveFrom(min(n, size())); super.setSize(n);}
+
+    void fromInts(int at, int width, int stride, int count)                     // Write the integers from zero up to count in binary into fields of the specified width spaced by stride bits from the specified position in one pass over memory rather than by indexing an array for each one
+     {final boolean shared = snapshots.size() > 0;                              // Only pages shared with a snapshot need preserving
+      for (int n = 0, p = at; n < count; n++, p += stride)
+       {for (int i = 0; i < width; i++)
+         {if (shared) preserve(p+i);
+          elementData[p+i] = (n >> i & 1) == 1;                                 // Write straight into the backing array to avoid locking the memory once per bit
+         }
+       }
+     }
+
+    Snapshot snapshot() {return new Snapshot();}                                // Take a snapshot of this memory
+
+    class Snapshot                                                              // A point in time image of a memory that shares each page with the memory until the memory writes to it
+     {final int         size;                                                   // Number of bits in memory when the snapshot was taken
+      final Boolean[][] pages;                                                  // Pages copied from the memory before they were changed, null while the page is still shared
+      int pagesCopied = 0;                                                      // Number of pages copied so far
+
+      Snapshot()                                                                // Snapshot the memory by sharing all its pages
+       {size  = Memory.this.size();
+        pages = new Boolean[(size + pageSize - 1) / pageSize][];
+        snapshots.push(this);
+       }
+
+      void preserve(int p)                                                      // Copy a page from memory unless it has already been copied
+       {if (p >= pages.length || pages[p] != null) return;
+        final int    s = p * pageSize, n = min(pageSize, size - s);
+        final Boolean[] page = new Boolean[n];
+        for (int i = 0; i < n; i++) page[i] = Memory.this.elementAt(s+i);
+        pages[p] = page;
+        ++pagesCopied;
+       }
+
+      Boolean get(int i)                                                        // Get a bit as it was when the snapshot was taken
+       {final Boolean[] p = pages[i / pageSize];
+        return p != null ? p[i % pageSize] : Memory.this.elementAt(i);
+       }
+
+      int size() {return size;}                                                 // Number of bits in the snapshot
+
+      void release() {snapshots.remove(this);}                                  // Stop preserving pages for this snapshot once it is no longer needed. The snapshot should not be read after it has been released.
+
+      Memory memory()                                                           // Create a separate memory with the contents of this snapshot
+       {final Memory m = new Memory();
+        m.setSize(size);
+        for (int i = 0; i < size; i++) m.setElementAt(get(i), i);
+        return m;
+       }
+     }
     public String toString()                                                    // Print memory
      {final StringBuilder s = new StringBuilder();
       final int N = size();
@@ -141,6 +271,8 @@ public class Layout extends Test implements LayoutAble
     int at;                                                                     // Offset of field from start of memory
     int width;                                                                  // Number of bits in a field
     int depth;                                                                  // Depth of field - the number of containing arrays/structures/unions above
+    int align  = 1;                                                             // Alignment in bits required for the start of this field
+    int offset = 0;                                                             // Offset of this field from the start of the structure containing it
     Field up;                                                                   // Upward chain to containing array/structure/union
     final Map<String,Field> fullNames = new TreeMap<>();                        // Fields by name
     final Set<String>  classification = new TreeSet<>();                        // Names that identify the type of the field to aid debugging
@@ -150,6 +282,16 @@ public class Layout extends Test implements LayoutAble
     int at   () {return at;}                                                    // Position of field in memory
     int width() {return width;}                                                 // Size of the memory in bits occupied by this field
 
+    Field align(int Align)                                                      // Align the start of this field to a multiple of the specified number of bits so that it can be loaded and stored as a whole word
+     {if (Align < 1) stop("Alignment must be one or more bits, not:", Align);
+      align = Align;
+      return this;
+     }
+
+    int alignment() {return align;}                                             // Alignment required by this field and any fields it contains
+
+    void printPadding(Field top, StringBuilder s) {}                            // Report the padding bits added inside this field to align its sub fields
+
     void fullName(Layout.Field top, StringBuilder s)                            // The full name of a field relative to the indicated top
      {if (top == this) return;
       final Stack<String> names = new Stack<>();                                // Full name path
@@ -201,15 +343,6 @@ public class Layout extends Test implements LayoutAble
     String  indent() {return "  ".repeat(depth);}                               // Indentation during printing
     char fieldType() {return getClass().getName().split("\\$")[1].charAt(0);}   // First letter of inner most class name to identify type of field
 
-    StringBuilder header()                                                      // Create a string builder with a header preloaded
-     {final StringBuilder s = new StringBuilder();
-      //s.append("Memory: "+memory.memoryNumber+"\n");
-      s.append(String.format
-       ("%1s %4s  %4s  %5s    %8s   %s\n",
-        "T", "At", "Wide", "Index", "Value", "Field name"));
-      return s;
-     }
-
     String printName(Layout.Field top)                                          // Print the name of a field showing whether it is a constant and its classification
      {final StringBuilder s = new StringBuilder();
       s.append(indent());
@@ -227,20 +360,7 @@ public class Layout extends Test implements LayoutAble
       return s.toString();
      }
 
-    void print(Layout.Field top, StringBuilder s)                               // Print the field
-     {final String  i = printInt();                                             // Format value of field if available
-      final String  n = printName(top);                                         // Name using indentation to show depth
-      final char    c = fieldType();                                            // First letter of inner most class name to identify type of field
-
-      s.append(String.format("%c %4d  %4d         %10s   %s\n",                 // Variable
-                             c,  at,  width,      i,     n));
-     }
-
-    public String toString()                                                    // Print the field and its sub structure
-     {final StringBuilder s = header();
-      print(this, s);
-      return s.toString();
-     }
+    public String toString() {return new Printer().print(this);}                // Print the field and its sub structure
 
     abstract Field duplicate(Layout d);                                         // Duplicate this field and place it in the specified layout so we can modify it safely
 
@@ -250,9 +370,16 @@ public class Layout extends Test implements LayoutAble
     Structure toStructure() {return (Structure)this;}                           // Try to convert to a structure
     Union     toUnion    () {return (Union)    this;}                           // Try to convert to a union
 
-    Boolean get(int i)     {return Layout.this.get(at+i);}                      // Get a bit from this layout
+    int     bit(int i)     {return at+i;}                                       // Position in memory of a bit in this field
+    boolean inColumns()                                                         // Whether this field lies within an array laid out in columns and so might not occupy a contiguous range of bits
+     {for (Field f = this; f.up != null; f = f.up)
+       {if (f.up instanceof Array a && a.columns) return true;
+       }
+      return false;
+     }
+    Boolean get(int i)     {return Layout.this.get(bit(i));}                    // Get a bit from this layout
     void    set(int i, Boolean b)                                               // Put a bit into this layout as long as it os not a constant
-     {Layout.this.set(at+i, b);                                                 // Set this field
+     {Layout.this.set(bit(i), b);                                               // Set this field
      }
 
     public String asString()                                                    // Part of memory corresponding to this layout as a string of bits in low endian order
@@ -307,7 +434,10 @@ public class Layout extends Test implements LayoutAble
        }
      }
 
-    void  fromUnary(int i) {fromInt((1<<i)-1);}                                 // Set a field to the unary representation of an integer
+    void fromUnary(int i)                                                       // Set a field to the unary representation of an integer
+     {if (constant) err("cannot modify constant:",name,"with value:",asInt());  // Complain if we try to set a field marked as constant
+      else for(int j = 0; j < width; ++j) set(j, j < i);                        // One bit per unit so not limited to the width of an integer
+     }
 
     int asUnary()                                                               // Get an integer representing the unary value contained a field by counting the bits that are on
      {int n = 0;
@@ -332,7 +462,7 @@ public class Layout extends Test implements LayoutAble
       d.memory = d.new Memory();                                                // New memory
       final int N = min(memory.size(), width);                                  // Amount of memory we can safely copy
       for(int i = 0; i < N; ++i)
-       {d.memory.setElementAt(memory.elementAt(at+i), i);                       // Copy memory from source to target
+       {d.memory.setElementAt(get(i), i);                                       // Copy memory from source to target
        }
       return d;                                                                 // Duplicate
      }
@@ -376,7 +506,7 @@ public class Layout extends Test implements LayoutAble
 
     Field duplicate(Layout d)                                                   // Duplicate a variable during the duplication of a layout
      {final Variable v = d.new Variable(name, width);
-      v.at = at; v.depth = depth;
+      v.at = at; v.depth = depth; v.align = align; v.offset = offset;
       return v;
      }
 
@@ -390,7 +520,7 @@ public class Layout extends Test implements LayoutAble
 
     Field duplicate(Layout d)                                                   // Duplicate a bit so we can modify it safely
      {final Bit b = d.new Bit(name);
-      b.at = at; b.depth = depth;
+      b.at = at; b.depth = depth; b.align = align; b.offset = offset;
       return b;
      }
    }
@@ -398,6 +528,8 @@ public class Layout extends Test implements LayoutAble
   class Array extends Field                                                     // Layout an array definition.
    {int size;                                                                   // Dimension of array
     int index = 0;                                                              // Index of array field to access
+    int stride;                                                                 // Distance in bits from the start of one element to the start of the next
+    boolean columns = false;                                                    // Store each field of the element structure contiguously across all the elements of the array rather than storing each element contiguously
     Field element;                                                              // The elements of this array are of this type
 
     Array(String Name, LayoutAble Element, int Size)                            // Create the array definition
@@ -408,14 +540,49 @@ public class Layout extends Test implements LayoutAble
       if (l != null) layouts.push(l);                                           // Add the element to the list of sub layouts if it is a sub layout
      }
 
-    int at(int i) {return at+i*element.width;}                                  // Offset of this array field in the structure
+    int at(int i) {return at+i*stride;}                                         // Offset of this array field in the structure
+
+    void alignElements(int Align) {element.align(Align);}                       // Align the start of each element of the array
+
+    Array columns()                                                             // Lay out the array as a structure of arrays so that each field of the element structure occupies a contiguous range of bits across all the elements
+     {if (!(element instanceof Structure) || element instanceof Union)
+       {stop("Only an array of structures can be laid out in columns, not:", name);
+       }
+      columns = true;
+      return this;
+     }
+
+    int bit(int i, int k)                                                       // Position in memory of bit k of element i of the array
+     {if (!columns) return at + i * stride + k;                                 // Elements follow each other
+      int e = 0;                                                                // End of the previous field in the element
+      for(Field f : element.toStructure().subStack)                             // Find the column containing the bit
+       {if (k < f.offset)                                                       // Padding in front of the field
+         {return at + size * e + i * (f.offset - e) + k - e;
+         }
+        if (k < f.offset + f.width)                                             // Bit is in this field
+         {return at + size * f.offset + i * f.width + k - f.offset;
+         }
+        e = f.offset + f.width;
+       }
+      return at + size * e + i * (stride - e) + k - e;                          // Padding after the last field
+     }
+
+    int alignment() {return max(align, element.alignment());}                   // An array must be aligned at least as strictly as its elements
 
     void layout(int At, int Depth)                                              // Position this array within the layout
      {depth = Depth;                                                            // Depth of field in the layout
       element.layout(At, Depth+1);                                              // Field sub structure
       at = At;                                                                  // Position on index
       element.up = this;                                                        // Chain up to containing parent field
-      width = size * element.width;                                             // The size of the array is the sie of its element times the number of elements in the array
+      stride = roundUp(element.width, element.alignment());                     // Pad each element so that the next element is aligned too
+      width = size * stride;                                                    // The size of the array is the size of its padded element times the number of elements in the array
+      if (columns) position(at);                                                // Place the fields of the element in their columns
+     }
+
+    void printPadding(Field top, StringBuilder s)                               // Report the padding bits added after each element of the array
+     {final int p = size * (stride - element.width);
+      if (p > 0) s.append(String.format("%7d  %s\n", p, printName(top)));
+      element.printPadding(top, s);
      }
 
     void indexNames()                                                           // Index the name of this field and its sub fields
@@ -426,34 +593,48 @@ public class Layout extends Test implements LayoutAble
 
     void position(int At)                                                       // Reposition this array after an index of a containing array has been changed
      {at = At;
-      element.position(at + index * element.width);
-     }
-
-    void print(Layout.Field top, StringBuilder s)                               // Print the array
-     {final String  n = printName(top);                                         // Name using indentation to show depth
-      final char    c = fieldType();                                            // First letter of inner most class name to identify type of field
-
-      final int indexSave = index;                                              // Save the array index
-      for (int j = 0; j < size; j++)                                            // Each array element
-       {setIndex(j);
-        final String i = printInt();                                            // Format value of field if available
-        final int    w = width;                                                 // Bits occupied bythe array
-        final int    p = at + element.width * j;                                // Position of the array element
-        s.append(String.format("%c %4d  %4d  %5d  %10s   %s\n",                 // Index of the array
-                               c,  p,   w,   j,   i,     n));
-        element.print(top, s);                                                  // Print the array element without headers
+      if (!columns)                                                             // Elements follow each other
+       {element.position(at + index * stride);
+        return;
+       }
+      element.at = bit(index, 0);                                               // Fields of the element are in separate columns
+      for(Field f : element.toStructure().subStack)
+       {f.position(f.at = bit(index, f.offset));
        }
-      index = indexSave;                                                        // Restore the original array index
      }
 
     void setIndex(int Index)                                                    // Sets the index for the current array field allowing us to set and get this field and all its sub elements.
      {index = Index; position(at);
      }
 
+    void move(int first, int last, int by)                                      // Move elements first through last inclusive up or down by the specified number of slots, copying in the direction that is safe when the source and target overlap
+     {if (first > last || by == 0) return;                                      // Nothing to move
+      if (first < 0 || first + by < 0 || last >= size || last + by >= size)
+       {stop("Cannot move elements", first, "to", last, "by", by,
+             "in array", name, "of size", size);
+       }
+      final int n = last - first + 1;                                           // Number of elements to move
+      if (!columns) moveBits(bit(first, 0), bit(first+by, 0), n * stride);      // Elements follow each other so they can be moved as one block
+      else for(Field f : element.toStructure().subStack)                        // Move the same range in each column
+       {moveBits(bit(first, f.offset), bit(first+by, f.offset), n * f.width);
+       }
+     }
+
+    private void moveBits(int source, int target, int length)                   // Move a block of bits within memory
+     {if (target < source)                                                      // Moving down so copy upwards
+       {for (int i = 0; i < length; i++) Layout.this.set(target+i, Layout.this.get(source+i));
+       }
+      else                                                                      // Moving up so copy downwards
+       {for (int i = length-1; i >= 0; i--) Layout.this.set(target+i, Layout.this.get(source+i));
+       }
+     }
+
     Field duplicate(Layout d)                                                   // Duplicate an array so we can modify it safely
      {final Field e = element.duplicate(d);
       final Array a = d.new Array(name, e, size);
       a.width = width; a.at = at; a.depth = depth; a.index = index;
+      a.stride = stride; a.align = align; a.offset = offset;
+      a.columns = columns;
       e.up = a;
       return a;
      }
@@ -464,6 +645,7 @@ public class Layout extends Test implements LayoutAble
   class Structure extends Field                                                 // Layout a structure
    {final Map<String,Field> subMap   = new TreeMap<>();                         // Unique variables contained inside this structure
     final Stack     <Field> subStack = new Stack  <>();                         // Order of fields inside this structure
+    int padding;                                                                // Number of bits inserted between fields to align them
 
     Structure(String Name, LayoutAble...Fields)                                 // Fields in the structure
      {super(Name);
@@ -483,17 +665,32 @@ public class Layout extends Test implements LayoutAble
       if (l != null) layouts.push(l);                                           // Add the element to the list of sub layouts if it is a sub layout
      }
 
+    int alignment()                                                             // A structure must be aligned at least as strictly as any of its fields
+     {int a = align;
+      for(Field v : subStack) a = max(a, v.alignment());
+      return a;
+     }
+
     void layout(int At, int Depth)                                              // Place the structure in the layout
      {at = At;
       width = 0;
+      padding = 0;
       depth = Depth;
       for(Field v : subStack)                                                   // Field sub structure
-       {v.at = at+width;
+       {final int o = roundUp(width, v.alignment());                            // Align the field
+        padding += o - width;                                                   // Bits skipped to align the field
+        v.offset = o;
+        v.at = at+o;
         v.layout(v.at, Depth+1);
-        width += v.width;
+        width = o + v.width;
        }
      }
 
+    void printPadding(Field top, StringBuilder s)                               // Report the padding bits added between the fields of the structure
+     {if (padding > 0) s.append(String.format("%7d  %s\n", padding, printName(top)));
+      for(Field f: subStack) f.printPadding(top, s);
+     }
+
     void indexNames()                                                           // Index the name of this structure and its sub fields
      {indexName();
       for (Field f : subStack)                                                  // Each field in the structure
@@ -503,16 +700,15 @@ public class Layout extends Test implements LayoutAble
 
     void position(int At)                                                       // Reposition this structure after an index of a containing array has been changed
      {at = At;
-      int w = 0;
       for(Field v : subStack)                                                   // Field sub structure
-       {v.position(v.at = at+w);                                                // Substructures are laid out sequentially
-        w += v.width;
+       {v.position(v.at = at+v.offset);                                         // Substructures are laid out sequentially
        }
      }
 
     Field duplicate(Layout d)                                                   // Duplicate a structure so we can modify it safely
      {final Structure s = d.new Structure(name);
       s.width = width; s.at = at; s.depth = depth;
+      s.align = align; s.offset = offset; s.padding = padding;
       for(Field L : subStack)
        {final Field l = L.duplicate(d);
         s.subMap.put(l.name, l);
@@ -524,9 +720,8 @@ public class Layout extends Test implements LayoutAble
 
     Structure like() {return duplicate().asField().toStructure();}              // Make a structure like this one
 
-    void print(Layout.Field top, StringBuilder s)                               // Print the structure
-     {super.print(top, s);
-      for(Field f: subStack) f.print(top, s);                                   // Print each field of structure
+    int bit(int i)                                                              // Position in memory of a bit in this structure allowing for the structure being an element of an array laid out in columns
+     {return up instanceof Array a && a.columns ? a.bit(a.index, i) : at+i;
      }
    }
 
@@ -539,7 +734,7 @@ public class Layout extends Test implements LayoutAble
      {width = 0;
       depth = Depth;
       for(Field v : subMap.values())                                            // Find largest substructure
-       {v.at = at;                                                              // Substructures are laid out on top of each other
+       {v.at = at; v.offset = 0;                                                // Substructures are laid out on top of each other
         v.layout(v.at, Depth+1);
         width = max(width, v.width);                                            // Space occupied is determined by largest field of union
        }
@@ -631,6 +826,203 @@ public class Layout extends Test implements LayoutAble
 
   Bits bits() {return new Bits();}                                              // Create a set of bits
 
+  Memory.Snapshot snapshot() {return memory.snapshot();}                        // Take a copy on write snapshot of the memory of this layout
+
+//D1 Print                                                                      // Print the fields of a layout and their values
+
+  Printer printer() {return new Printer();}                                     // Create a printer for this layout
+
+  class Printer                                                                 // Stream fields and their values to an appendable without changing the index of any array so that large layouts can be printed in linear time
+   {String  prefix   = "";                                                      // Only print fields whose full name starts with this prefix
+    boolean nonZero  = false;                                                   // Only print fields that contain at least one bit set to one
+    int     maxDepth = Integer.MAX_VALUE;                                       // Only print fields at most this many levels below the field being printed
+    int     first    = 0;                                                       // First index to print in each array
+    int     last     = Integer.MAX_VALUE;                                       // Last index to print in each array
+    final Map<Array,int[]> ranges = new HashMap<>();                            // Ranges of indices to print in specific arrays
+
+    Printer prefix  (String Prefix) {prefix   = Prefix; return this;}           // Only print fields whose full name starts with this prefix
+    Printer nonZero ()              {nonZero  = true;   return this;}           // Only print fields that are not zero
+    Printer maxDepth(int Depth)     {maxDepth = Depth;  return this;}           // Only print fields to this depth
+    Printer range   (int First, int Last)                                       // Only print the elements of each array within this range of indices
+     {first = First; last = Last; return this;
+     }
+    Printer range   (Array array, int First, int Last)                          // Only print the elements of the specified array within this range of indices
+     {ranges.put(array, new int[]{First, Last}); return this;
+     }
+
+    String print(Field field)                                                   // Print a field to a string
+     {final StringBuilder s = new StringBuilder();
+      print(field, s);
+      return s.toString();
+     }
+
+    void print(Field field, Appendable out)                                     // Stream a field and the fields it contains
+     {try
+       {out.append("T   At  Wide  Index       Value   Field name\n");           // Header
+        print(field, field, field.at, "", out);
+       }
+      catch(java.io.IOException e) {stop("Unable to print layout:", e);}
+     }
+
+    private void print(Field top, Field field, int at, String path,             // Print a field at a specified position in memory
+      Appendable out) throws java.io.IOException
+     {if (field.depth - top.depth > maxDepth) return;                           // Too deep
+      final String p = field == top ? "" :                                      // Full name of field relative to top
+                       path.length() == 0 ? field.name : path+"."+field.name;
+      final boolean show = p.startsWith(prefix);                                // Print this field
+      if (!show && !prefix.startsWith(p)) return;                               // Neither this field nor any field it contains matches the prefix
+
+      if (field instanceof Array a)                                             // Each element of an array
+       {final int[] r = ranges.getOrDefault(a, new int[]{first, last});
+        final String v = show ? value(a, k -> at + k, a.width) : null;          // Value of the whole array
+        final int    o = at - a.at;                                             // Offset from the current position of the array to the position being printed
+        for (int j = max(0, r[0]); j <= min(a.size-1, r[1]); j++)
+         {final int e = a.bit(j, 0) + o, J = j;                                 // Position of the array element
+          if (nonZero && isZero(a, k -> a.bit(J, k) + o, a.element.width))      // Skip zero elements
+           {continue;
+           }
+          if (show) line(out, a, top, e, a.width, j, v);
+          if (a.columns) print(top, a, j, o, p, out);                           // Print an array element whose fields are in columns
+          else           print(top, a.element, e, p, out);                      // Print the array element
+         }
+        return;
+       }
+      if (nonZero && isZero(field, k -> at + k, field.width)) return;           // Nothing to print
+      if (show) line(out, field, top, at, field.width, -1,
+                     value(field, k -> at + k, field.width));
+      if (field instanceof Structure s)                                         // Each field of a structure or union
+       {for(Field f : s.subStack) print(top, f, at + f.offset, p, out);
+       }
+     }
+
+    private void print(Field top, Array array, int index, int o, String path,   // Print an element of an array laid out in columns offset from the current position of the array
+      Appendable out) throws java.io.IOException
+     {final Field e = array.element;
+      if (e.depth - top.depth > maxDepth) return;                               // Too deep
+      final String p = path.length() == 0 ? e.name : path+"."+e.name;           // Full name of element relative to top
+      final boolean show = p.startsWith(prefix);                                // Print this element
+      if (!show && !prefix.startsWith(p)) return;                               // Neither this element nor any field it contains matches the prefix
+      if (show) line(out, e, top, array.bit(index, 0) + o, e.width, -1,
+                     value(e, k -> array.bit(index, k) + o, e.width));
+      for(Field f : e.toStructure().subStack)                                   // Each field is contiguous within its column
+       {print(top, f, array.bit(index, f.offset) + o, p, out);
+       }
+     }
+
+    private void line(Appendable out, Field field, Field top, int at,           // Print one line describing a field
+      int width, int index, String value) throws java.io.IOException
+     {out.append(field.fieldType()).append(' ');
+      pad(out, ""+at, 4);    out.append("  ");
+      pad(out, ""+width, 4); out.append("  ");
+      pad(out, index < 0 ? "" : ""+index, 5);  out.append("  ");
+      pad(out, value, 10);   out.append("   ");
+      out.append(field.printName(top)).append('\n');
+     }
+
+    private void pad(Appendable out, String s, int width)                       // Right justify a string
+      throws java.io.IOException
+     {for (int i = s.length(); i < width; i++) out.append(' ');
+      out.append(s);
+     }
+
+    private String value(Field field, IntUnaryOperator bit, int width)          // Value of the bits at the positions in memory given by a function as an integer if possible
+     {int n = 0;
+      for (int i = 0; i < width; ++i)                                           // Each bit
+       {final Boolean v = field.asLayout().get(bit.applyAsInt(i));              // Value of bit
+        if (v == null) return "";                                               // One of the bits is null so the overall value is no longer known
+        if (v && i > Integer.SIZE-1) return "";                                 // Value is too big to be represented
+        n += v ? 1<<i : 0;
+       }
+      return ""+n;
+     }
+
+    private boolean isZero(Field field, IntUnaryOperator bit, int width)        // Whether all the bits at the positions in memory given by a function are zero
+     {for (int i = 0; i < width; ++i)
+       {final Boolean v = field.asLayout().get(bit.applyAsInt(i));
+        if (v != null && v) return false;
+       }
+      return true;
+     }
+   }
+
+//D1 Difference                                                                 // Locate the fields whose values differ between two memories with the same layout
+
+  class Difference                                                              // A leaf field whose bits differ between two memories
+   {final Field          field;                                                 // Variable or bit that changed
+    final int            at;                                                    // Position of the field in memory given the array indices below
+    final Stack<Integer> indices;                                               // Index of each containing array, outer most first
+    final String         was, is;                                               // Old and new values of the field as bit strings with the lowest bit rightmost
+
+    Difference(Field Field, int At, Stack<Integer> Indices, String Was, String Is)
+     {field = Field; at = At; indices = Indices; was = Was; is = Is;
+     }
+
+    String path()                                                               // Full name of the field with the index of each containing array
+     {final StringBuilder s = new StringBuilder();
+      int i = indices.size();                                                   // Array indices are consumed from the inner most array outwards
+      for(Field f = field; f.up != null; f = f.up)                              // Up to but not including the top most field
+       {final String p = f.up instanceof Array ?                                // Array elements are named by their index
+          "["+indices.elementAt(--i)+"]" : f.name;
+        if (s.length() > 0 && s.charAt(0) != '[') s.insert(0, ".");
+        s.insert(0, p);
+       }
+      return s.length() > 0 ? s.toString() : field.name;                        // The top most field is named only when it is the field that changed
+     }
+
+    public String toString() {return path()+" "+was+" -> "+is;}                 // Print the difference
+   }
+
+  Stack<Difference> diff(Memory a, Memory b)                                    // Compare two memories laid out by this layout and report the leaf fields that differ
+   {final Stack<Difference>    d = new Stack<>();                               // Differences found
+    final TreeMap<Integer,Integer> changed = new TreeMap<>();                   // Start to end of each range of bits that differ
+    if (top == null) return d;                                                  // No fields to compare
+    final int N = top.width;
+    for (int i = 0; i < N;)                                                     // Find ranges of changed bits in one pass over the memories
+     {if (Objects.equals(a.elementAt(i), b.elementAt(i))) {++i; continue;}      // Bits match
+      final int start = i;
+      while(i < N && !Objects.equals(a.elementAt(i), b.elementAt(i))) ++i;      // Extend the range of changed bits
+      changed.put(start, i);
+     }
+    if (changed.size() > 0) diff(top, 0, new Stack<>(), changed, a, b, d);      // Map changed ranges back to fields
+    return d;
+   }
+
+  private void diff(Field field, int at, Stack<Integer> indices,                // Descend through the fields that overlap a range of changed bits without changing any array indices
+    TreeMap<Integer,Integer> changed, Memory a, Memory b, Stack<Difference> d)
+   {final var r = changed.floorEntry(at + field.width - 1);                     // Last range starting before the end of this field
+    if (r == null || r.getValue() <= at) return;                                // No changed bits in this field
+
+    if (field instanceof Array A)                                               // Each element of an array
+     {for (int i = 0; i < A.size; i++)
+       {indices.push(i);
+        if (A.columns)                                                          // Each field of the element is in a separate column
+         {for(Field f : A.element.toStructure().subStack)
+           {diff(f, A.bit(i, f.offset) - A.at + at, indices, changed, a, b, d);
+           }
+         }
+        else diff(A.element, at + i * A.stride, indices, changed, a, b, d);
+        indices.pop();
+       }
+     }
+    else if (field instanceof Union U)                                          // Fields of a union overlay each other
+     {for(Field f : U.subMap.values()) diff(f, at, indices, changed, a, b, d);
+     }
+    else if (field instanceof Structure S)                                      // Fields of a structure follow each other
+     {for(Field f : S.subStack) diff(f, at + f.offset, indices, changed, a, b, d);
+     }
+    else                                                                        // Leaf field
+     {final StringBuilder was = new StringBuilder(), is = new StringBuilder();
+      for (int i = 0; i < field.width; i++)                                     // Value of each bit in each memory
+       {final Boolean A = a.elementAt(at+i), B = b.elementAt(at+i);
+        was.append(A == null ? '.' : A ? '1' : '0');
+        is .append(B == null ? '.' : B ? '1' : '0');
+       }
+      final Stack<Integer> i = new Stack<>(); i.addAll(indices);                // Array indices at the time of the difference
+      d.push(new Difference(field, at, i, was.reverse().toString(),
+                                          is .reverse().toString()));
+     }
+   }
+
 //D0                                                                            // Tests.
 
   static void test_1()
@@ -1280,9 +1672,244 @@ V    4     4                  3     c     c
    }
 
 
+  static void test_diff()
+   {Layout    l = new Layout();
+    Variable  a = l.variable ("a", 2);
+    Variable  b = l.variable ("b", 2);
+    Structure s = l.structure("s", a, b);
+    Array     A = l.array    ("A", s, 3);
+    Variable  c = l.variable ("c", 4);
+    Bit       x = l.bit      ("x");
+    Variable  y = l.variable ("y", 3);
+    Union     u = l.union    ("u", x, y);
+    Structure S = l.structure("S", A, c, u);
+    l.layout(S);
+
+    final Memory m = l.new Memory(l.memory);                                    // Snapshot before changes
+    ok(l.diff(m, l.memory).size(), 0);
+
+    A.setIndex(1); b.fromInt(2);
+    A.setIndex(2); a.fromInt(3);
+    c.fromInt(5);
+    A.setIndex(0);                                                              // Changing the index does not affect the comparison
+
+    final Stack<Difference> d = l.diff(m, l.memory);
+    ok(d.size(), 3);
+    ok(d.elementAt(0), "A[1].b 00 -> 10");
+    ok(d.elementAt(1), "A[2].a 00 -> 11");
+    ok(d.elementAt(2), "c 0000 -> 0101");
+    ok(d.elementAt(0).at, 6);
+    ok(d.elementAt(0).indices, "[1]");
+
+    y.fromInt(6);
+    final Stack<Difference> D = l.diff(m, l.memory);
+    ok(D.size(), 4);
+    ok(D.lastElement(), "u.y 000 -> 110");
+
+    l.memory.setElementAt(true, 16);                                            // Bit shared by both members of the union
+    final Stack<Difference> U = l.diff(m, l.memory);
+    ok(U.size(), 5);
+    ok(U.elementAt(3), "u.x 0 -> 1");
+    ok(U.elementAt(4), "u.y 000 -> 111");
+   }
+
+  static void test_align()
+   {Layout    l = new Layout();
+    Bit       a = l.bit      ("a");
+    Variable  b = l.variable ("b", 8);
+    Variable  c = l.variable ("c", 3);
+    Structure s = l.structure("s", a, b, c);
+    Array     A = l.array    ("A", s, 2);
+    Variable  d = l.variable ("d", 4);
+    Structure S = l.structure("S", d, A);
+    b.align(8);
+    l.layout(S);
+    //stop(l);
+    l.ok("""
+T   At  Wide  Index       Value   Field name
+S    0    56                  0   S
+V    0     4                  0     d     d
+A    8    48      0           0     A     A
+S    8    19                  0       s     A.s
+B    8     1                  0         a     A.s.a
+V   16     8                  0         b     A.s.b
+V   24     3                  0         c     A.s.c
+A   32    48      1           0     A     A
+S   32    19                  0       s     A.s
+B   32     1                  0         a     A.s.a
+V   40     8                  0         b     A.s.b
+V   48     3                  0         c     A.s.c
+""");
+    //stop(l.padding());
+    ok(l.padding(), """
+Padding  Field
+      4  S
+     10    A     A
+      7      s     A.s
+""");
+    A.setIndex(1); b.fromInt(5);
+    ok(b.at, 40);
+    final Layout D = l.duplicate().asLayout();                                  // Alignment survives duplication
+    ok(D.get("A.s.b").at, 40);
+    ok(D.toString(), l.toString());
+   }
+
+  static void test_printer()
+   {Layout    l = new Layout();
+    Variable  a = l.variable ("a", 2);
+    Variable  b = l.variable ("b", 2);
+    Structure s = l.structure("s", a, b);
+    Array     A = l.array    ("A", s, 3);
+    Variable  c = l.variable ("c", 4);
+    Structure S = l.structure("S", A, c);
+    l.layout(S);
+    A.setIndex(1); b.fromInt(2);
+    c.fromInt(5);
+
+    final StringBuilder o = new StringBuilder();
+    l.printer().nonZero().print(S, o);
+    //stop(o);
+    ok(o.toString(), """
+T   At  Wide  Index       Value   Field name
+S    0    16              20608   S
+A    4    12      1         128     A     A
+S    4     4                  8       s     A.s
+V    6     2                  2         b     A.s.b
+V   12     4                  5     c     c
+""");
+    ok(A.index, 1);                                                             // Printing does not change array indices
+    ok(b.at, 6);
+
+    //stop(l.printer().prefix("A.s.b").range(1, 2).print(S));
+    ok(l.printer().prefix("A.s.b").range(1, 2).print(S), """
+T   At  Wide  Index       Value   Field name
+V    6     2                  2         b     A.s.b
+V   10     2                  0         b     A.s.b
+""");
+
+    //stop(l.printer().maxDepth(1).range(A, 0, 0).print(S));
+    ok(l.printer().maxDepth(1).range(A, 0, 0).print(S), """
+T   At  Wide  Index       Value   Field name
+S    0    16              20608   S
+A    0    12      0         128     A     A
+V   12     4                  5     c     c
+""");
+   }
+
+  static void test_snapshot()
+   {Layout    l = new Layout();
+    Variable  a = l.variable ("a", 40);
+    Variable  b = l.variable ("b", 40);
+    Array     A = l.array    ("A", a, 4);
+    Structure S = l.structure("S", A, b);
+    l.layout(S);
+    A.setIndex(0); a.fromInt(1);
+
+    final Memory.Snapshot s = l.snapshot();                                     // No pages copied yet
+    ok(s.size(), 200);
+    ok(s.pagesCopied, 0);
+
+    A.setIndex(0); a.fromInt(3);                                                // First page copied
+    ok(s.pagesCopied, 1);
+    A.setIndex(1); a.fromInt(4);                                                // Straddles the first and second pages
+    ok(s.pagesCopied, 2);
+    b.fromInt(5);                                                               // Third page
+    ok(s.pagesCopied, 3);
+
+    ok(s.get(0), true);                                                         // Values as they were when the snapshot was taken
+    ok(s.get(1), false);
+    ok(s.get(42), false);
+    ok(l.get(1), true);                                                         // Values now
+
+    final Stack<Difference> d = l.diff(s.memory(), l.memory);                   // Changes made since the snapshot was taken
+    ok(d.size(), 3);
+    ok(d.elementAt(0).path(), "A[0]");
+    ok(d.elementAt(1).path(), "A[1]");
+    ok(d.elementAt(2).path(), "b");
+
+    s.release();
+    b.fromInt(6);                                                               // Released snapshots no longer copy pages
+    ok(s.pagesCopied, 3);
+    ok(l.memory.snapshots.size(), 0);
+
+    final Memory.Snapshot t = l.snapshot();                                     // Mutators inherited from Stack preserve pages too
+    final String          m = t.memory().toString();
+    l.memory.removeElementAt(0);                                                // Shifts every bit down
+    ok(t.pagesCopied, 4);
+    l.memory.push(true);
+    l.memory.setSize(10);
+    l.memory.clear();
+    ok(t.pagesCopied, 4);
+    ok(t.memory().toString(), m);                                               // The snapshot is unchanged
+    ok(l.memory.size(), 0);
+    t.release();
+   }
+
+  static void test_columns()
+   {Layout    l = new Layout();
+    Variable  a = l.variable ("a", 2);
+    Variable  b = l.variable ("b", 3);
+    Structure s = l.structure("s", a, b);
+    Array     A = l.array    ("A", s, 3);
+    Variable  c = l.variable ("c", 4);
+    Structure S = l.structure("S", A, c);
+    A.columns();
+    l.layout(S);
+
+    for (int i = 0; i < 3; i++)                                                 // Each field of each element
+     {A.setIndex(i);
+      a.fromInt(i+1);
+      b.fromInt(i+4);
+     }
+    ok(l.memory.toString(), "1..111.. 11.1.11.+...\n");                         // a0 a1 a2 b0 b1 b2 c
+    A.setIndex(1);
+    ok(a.at, 2);                                                                // The a fields are contiguous
+    ok(b.at, 9);                                                                // Followed by the b fields
+    ok(s.asInt(), 5<<2|2);                                                      // The element structure gathers its bits from each column
+
+    //stop(l);
+    l.ok("""
+T   At  Wide  Index       Value   Field name
+S    0    19              27449   S
+A    0    15      0       27449     A     A
+S    0     5                 17       s     A.s
+V    0     2                  1         a     A.s.a
+V    6     3                  4         b     A.s.b
+A    2    15      1       27449     A     A
+S    2     5                 22       s     A.s
+V    2     2                  2         a     A.s.a
+V    9     3                  5         b     A.s.b
+A    4    15      2       27449     A     A
+S    4     5                 27       s     A.s
+V    4     2                  3         a     A.s.a
+V   12     3                  6         b     A.s.b
+V   15     4                  0     c     c
+""");
+    final Memory m = l.new Memory(l.memory);
+    A.setIndex(2); b.fromInt(1);
+    ok(l.diff(m, l.memory).firstElement(), "A[2].b 110 -> 001");
+   }
+
+  static void test_from_ints()
+   {Layout l = new Layout();
+    Variable  a = l.variable ("a", 3);
+    Variable  b = l.variable ("b", 2);
+    Structure s = l.structure("s", a, b);
+    Array     A = l.array    ("A", s, 6);
+    l.layout(A);
+
+    l.memory.fromInts(A.at(0), a.width, A.stride, 6);                           // Number each element
+    for (int i = 0; i < 6; i++)
+     {A.setIndex(i);
+      ok(a.asInt(), i);
+      ok(b.asInt(), 0);
+     }
+   }
+
   static void oldTests()                                                        // Tests thought to be in good shape
    {test_1();
     test_memory();
+    test_from_ints();
     test_bit();
     test_bits();
     test_sub_layout();
@@ -1298,6 +1925,11 @@ V    4     4                  3     c     c
     test_binary_to_unary();
     test_like();
     test_structure_implicit();
+    test_diff();
+    test_align();
+    test_printer();
+    test_snapshot();
+    test_columns();
    }
 
   static void newTests()                                                        // Tests being worked on
@@ -0,0 +1,379 @@
+//------------------------------------------------------------------------------
+// A stuck held in a ring buffer so that elements can be added or removed at either end without moving the other elements.
+// Philip R Brenan at appaapps dot com, Appa Apps Ltd Inc., 2024
+//------------------------------------------------------------------------------
+package com.AppaApps.Silicon;                                                   // Design, simulate and layout  a binary tree on a silicon chip.
+
+import java.util.*;
+
+class RingStuck extends Stuck                                                   // Ring stuck: a stuck whose first element is located by a binary head index so that shift and unshift adjust the head rather than moving every element
+ {final Layout.Variable head;                                                   // Binary index of the array element holding the first element of the stuck
+  final int bits;                                                               // Number of bits in the head index
+
+//D1 Construction                                                               // Create a ring stuck
+
+  RingStuck(String Name, int Max, Layout repeat)                                // Create the ring stuck with a maximum number of the specified elements
+   {super(Name, Max, repeat);
+    bits = max(1, logTwo(max));                                                 // Enough bits to index any element of the array
+    head = layout.variable("head", bits);                                       // Position of the first element
+    stuck.addField(head);                                                       // The head is part of the stuck so that it moves with the stuck
+    layout.layout(stuck);                                                       // Layout the stuck again now that it has a head
+    stuck.zero();
+   }
+
+  static RingStuck ringStuck(String Name, int Max, Layout Layout)               // Create the ring stuck
+   {return new RingStuck(Name, Max, Layout);
+   }
+
+//D1 Actions                                                                    // Place and remove data to/from the ring stuck
+
+  void push(LayoutAble ElementToPush)                                           // Push an element onto the ring stuck
+   {setIndexRotated(array, head, unary.value, binary);                          // Index the slot after the last element
+    copy(element, ElementToPush.asField());                                     // Copy data into the stuck
+    unary.inc();                                                                // Show next free slot
+   }
+
+  void pop(LayoutAble PoppedElement)                                            // Pop an element from the ring stuck
+   {unary.dec();                                                                // Index of top most element
+    setIndexRotated(array, head, unary.value, binary);                          // Set index of topmost element
+    copy(PoppedElement.asField(), element);                                     // Copy data out of the stuck
+   }
+
+  void shift(LayoutAble ShiftedElement)                                         // Shift an element from the ring stuck by advancing the head
+   {setIndex(array, head);                                                      // Index of first element
+    copy(ShiftedElement.asField(), element);                                    // Copy shifted element out
+    incMod(head, max);                                                          // The next element becomes the first
+    unary.dec();                                                                // New number of elements on stuck after one has been shifted out
+   }
+
+  void unshift(LayoutAble ElementToUnShift)                                     // Unshift an element onto the ring stuck by retreating the head
+   {decMod(head, max);                                                          // Slot before the first element
+    setIndex(array, head);                                                      // Index the new first element
+    copy(element, ElementToUnShift.asField());                                  // Copy in the new element
+    unary.inc();                                                                // New number of elements on stuck
+   }
+
+  void elementAt(LayoutAble elementOut, Layout.Variable index)                  // Return the element at the indicated zero based index
+   {setIndexRotated(array, head, index, binary);                                // Index of required element
+    copy(elementOut.asField(), element);                                        // Copy element out
+   }
+
+  void setElementAt(LayoutAble elementIn, Layout.Variable index)                // Set the element at the indicated zero based index
+   {setIndexRotated(array, head, index, binary);                                // Index of element to set
+    copy(element, elementIn.asField());                                         // Copy element in
+   }
+
+  void insertElementAt(LayoutAble elementToInsert, Layout.Variable index)       // Insert an element at the indicated zero based index after moving the elements above up one position
+   {copy(target, unary.value);                                                  // One past the last element
+    new Repeat()
+     {void code()
+       {returnIfEqual(target, index);                                           // Test for finish of shifting phase
+        copy(source, target);                                                   // Element below the target
+        decIndex(source);
+        setIndexRotated(array, head, source, binary);                           // Index of source
+        copy(buffer, element);                                                  // Copy source into buffer
+        setIndexRotated(array, head, target, binary);                           // Index of target
+        copy(element, buffer);                                                  // Copy of source into target slot
+        decIndex(target);                                                       // One step down on target
+       }
+     };
+    setIndexRotated(array, head, index, binary);                                // Index of element to set
+    copy(element, elementToInsert.asField());                                   // Copy in new element
+    unary.inc();                                                                // New number of elements on stuck
+   }
+
+  void removeElementAt(Layout.Variable index)                                   // Remove the element at the indicated zero based index
+   {copy(target, index);                                                        // Target of removal
+    copy(source, target);                                                       // Source of removal
+    incIndex(source);                                                           // One step up on source
+    new Repeat()
+     {void code()
+       {returnIfEqual(source, unary.value);                                     // Test for finish of shifting phase
+        setIndexRotated(array, head, source, binary);                           // Index of source
+        copy(buffer, element);                                                  // Copy source into buffer
+        setIndexRotated(array, head, target, binary);                           // Index of target
+        copy(element, buffer);                                                  // Copy of source into target slot
+        incIndex(target);                                                       // One step up on target
+        incIndex(source);                                                       // One step up on source
+       }
+     };
+    unary.dec();                                                                // New number of elements on stuck
+   }
+
+  void firstElement(LayoutAble FirstElement)                                    // First element
+   {setIndex(array, head);                                                      // Set index of first element
+    copy(FirstElement.asField(), element);                                      // Copy of first element
+   }
+
+  void lastElement(LayoutAble LastElement)                                      // Last active element assuming there is one
+   {copy(source, unary.value);                                                  // Index top of stuck
+    decIndex(source);                                                           // Index of top most active element
+    setIndexRotated(array, head, source, binary);                               // Set index of topmost element
+    copy(LastElement.asField(), element);                                       // Copy of top most element
+   }
+
+//D1 Bulk                                                                       // The elements of a ring stuck wrap around the end of its array so they cannot be moved as one contiguous slice
+
+  void sliceSource(int from)                                                    // Slices address the array from its first element rather than from the head
+   {stop("Cannot copy slices of a ring stuck as its elements wrap around the end of its array");
+   }
+
+  void appendSlice(int count)                                                   // Slices address the array from its first element rather than from the head
+   {stop("Cannot append slices to a ring stuck as its free slots wrap around the end of its array");
+   }
+
+  void appendSlice(Layout.Variable count)                                       // Slices address the array from its first element rather than from the head
+   {stop("Cannot append slices to a ring stuck as its free slots wrap around the end of its array");
+   }
+
+  void sliceTo(Stuck target, int from, int count)                               // Slices address the array from its first element rather than from the head
+   {stop("Cannot copy slices of a ring stuck as its elements wrap around the end of its array");
+   }
+
+  void appendFrom(Stuck other)                                                  // Slices address the array from its first element rather than from the head
+   {stop("Cannot append slices to a ring stuck as its free slots wrap around the end of its array");
+   }
+
+  void shiftN(int count)                                                        // Discard the specified number of elements from the bottom of the ring stuck by advancing the head rather than moving the remaining elements
+   {for (int i = 0; i < count; i++) incMod(head, max);
+    unary.dec(count);
+   }
+
+//D1 Search                                                                     // Search a ring stuck.
+
+  void indexOf                                                                  // Find the index of an element in the ring stuck and set the found flag to true else if no such element is found the found flag is set to false
+   (LayoutAble elementToFind, int length,                                       // Check whether the stuck contains the specified element comparing the first length bits
+    Layout.Bit elementFound,  Layout.Variable foundAtIndex)                     // Whether the element was found and at what index
+   {copy(foundAtIndex, unary.value);                                            // Index of the last valid element if the element is not found
+    decIndex(foundAtIndex);
+    zero(elementFound);                                                         // Not found yet
+    zero(target);                                                               // Start with the first element
+    new Repeat()                                                                // The valid elements wrap around the end of the array so they are compared one at a time
+     {void code()
+       {returnIfEqual(target, unary.value);                                     // Past the last element
+        setIndexRotated(array, head, target, binary);                           // Index the element
+        Equals(elementFound, element, 0, elementToFind.asField(), 0, length);   // Compare the element
+        returnIfOne(elementFound);                                              // Found
+        incIndex(target);                                                       // Next element
+       }
+     };
+    new If(elementFound)
+     {void Then() {copy(foundAtIndex, target);}                                 // Index of element found
+     };
+    setIndexRotated(array, head, foundAtIndex, binary);                         // Index the element found
+   }
+
+//D0 Tests                                                                      // Test ring stuck
+
+  static Layout value(int W)                                                    // Layout of an element
+   {final Layout          l = new Layout();
+    final Layout.Variable v = l.variable("v", W);
+    l.layout(v);
+    return l;
+   }
+
+  static Layout value(int W, int v)                                             // An element with the specified value
+   {final Layout l = value(W);
+    l.asField().fromInt(v);
+    return l;
+   }
+
+  static String values(RingStuck s)                                             // Values in the ring stuck in logical order
+   {final StringBuilder b = new StringBuilder();
+    final int N = s.size(), H = s.head.asInt();
+    for (int i = 0; i < N; i++)
+     {s.array.setIndex((H + i) % s.max);
+      b.append(" "+s.element.asInt());
+     }
+    return b.toString().trim();
+   }
+
+  static void test_push_shift()
+   {final int W = 6, M = 4;
+    final RingStuck s = ringStuck("s", M, value(W));
+    final Layout    a = value(W), b = value(W), c = value(W);
+
+    s.push(value(W, 1)); s.push(value(W, 2)); s.push(value(W, 3));
+    s.shift(a);                                                                 // Head moves rather than the elements
+    s.push(value(W, 4)); s.push(value(W, 5));                                   // Wraps around the end of the array
+    s.shift(b);
+    s.pop(c);
+    s.execute();
+    ok(a.asField().asInt(), 1);
+    ok(b.asField().asInt(), 2);
+    ok(c.asField().asInt(), 5);
+    ok(s.size(), 2);
+    ok(s.head.asInt(), 2);
+    ok(values(s), "3 4");
+   }
+
+  static void test_unshift()
+   {final int W = 6, M = 4;
+    final RingStuck s = ringStuck("s", M, value(W));
+    final Layout    f = value(W), l = value(W);
+
+    s.push   (value(W, 2));
+    s.unshift(value(W, 1));                                                     // Head wraps below zero
+    s.push   (value(W, 3));
+    s.unshift(value(W, 0));
+    s.firstElement(f);
+    s.lastElement (l);
+    s.execute();
+    ok(s.size(), 4);
+    ok(s.head.asInt(), 2);
+    ok(values(s), "0 1 2 3");
+    ok(f.asField().asInt(), 0);
+    ok(l.asField().asInt(), 3);
+   }
+
+  static void test_insert_remove()
+   {final int W = 6, M = 6;
+    final RingStuck s = ringStuck("s", M, value(W));
+    final Layout    t = value(W);
+
+    final Layout          L = new Layout();
+    final Layout.Variable i = L.variable("i", M);
+    final Layout.Variable j = L.variable("j", M);
+    final Layout.Variable k = L.variable("k", M);
+    L.layout("s", i, j, k);
+    i.fromUnary(2); j.fromUnary(1); k.fromUnary(3);
+
+    for (int v = 1; v <= 4; v++) s.push(value(W, v));
+    s.shift(t); s.shift(t); s.shift(t);                                         // Head at 3
+    for (int v = 5; v <= 7; v++) s.push(value(W, v));                           // 4 5 6 7 wrapping around
+    s.insertElementAt(value(W, 9), i);                                          // 4 5 9 6 7
+    s.removeElementAt(j);                                                       // 4 9 6 7
+    s.elementAt(t, k);
+    s.execute();
+    ok(values(s), "4 9 6 7");
+    ok(t.asField().asInt(), 7);
+   }
+
+  static void test_index_of()
+   {final int W = 6, M = 4;
+    final RingStuck s = ringStuck("s", M, value(W));
+    final Layout    t = value(W);
+
+    final Layout          L = new Layout();
+    final Layout.Bit      f = L.bit     ("f");
+    final Layout.Bit      g = L.bit     ("g");
+    final Layout.Variable i = L.variable("i", M);
+    final Layout.Variable j = L.variable("j", M);
+    L.layout("s", f, g, i, j);
+
+    s.push(value(W, 1)); s.push(value(W, 2)); s.shift(t);
+    s.push(value(W, 3)); s.push(value(W, 4)); s.push(value(W, 5));              // 2 3 4 5 wrapping around
+    s.indexOf(value(W, 5), W, f, i);
+    s.indexOf(value(W, 6), W, g, j);
+    s.execute();
+    ok(f.get(), true);
+    ok(i.asUnary(), 3);
+    ok(g.get(), false);
+    ok(j.asUnary(), 3);
+   }
+
+  static void test_up()
+   {final int W = 6, M = 4;
+    final RingStuck     s = ringStuck("s", M, value(W));
+    final Layout        t = value(W);
+    final StringBuilder b = new StringBuilder();
+
+    s.push(value(W, 1)); s.push(value(W, 2)); s.push(value(W, 3)); s.shift(t);
+    s.push(value(W, 4)); s.push(value(W, 5));
+    s.new Up()                                                                  // Iteration follows the logical order
+     {void up(BitMachine.Repeat r)
+       {s.new Instruction()
+         {void action() {b.append(" "+value.asInt());}
+         };
+       }
+     };
+    s.execute();
+    ok(b.toString().trim(), "2 3 4 5");
+   }
+
+  static void test_binary()
+   {final int W = 6, M = 6, T = binaryThreshold;
+    binaryThreshold = 4;                                                        // Hold the size in binary
+    final RingStuck s = ringStuck("s", M, value(W));
+    binaryThreshold = T;
+    ok(s.binary, true);
+    final Layout    t = value(W);
+
+    final Layout          L = new Layout();
+    final Layout.Bit      f = L.bit     ("f");
+    final Layout.Variable i = L.variable("i", s.indexWidth());
+    final Layout.Variable j = L.variable("j", s.indexWidth());
+    L.layout("s", f, i, j);
+    i.fromInt(1);
+
+    for (int v = 1; v <= 4; v++) s.push(value(W, v));
+    s.shift(t); s.shift(t); s.shift(t);                                         // Head at 3
+    for (int v = 5; v <= 7; v++) s.push(value(W, v));                           // 4 5 6 7 wrapping around
+    s.insertElementAt(value(W, 9), i);                                          // 4 9 5 6 7
+    s.removeElementAt(i);                                                       // 4 5 6 7
+    s.indexOf(value(W, 7), W, f, j);
+    s.execute();
+    ok(values(s), "4 5 6 7");
+    ok(f.get(), true);
+    ok(j.asInt(), 3);
+   }
+
+  static void test_bulk()                                                       // Discard several elements from either end of a wrapped ring
+   {final int W = 6, M = 4;
+    final RingStuck s = ringStuck("s", M, value(W));
+    final Layout    t = value(W);
+
+    s.push(value(W, 1)); s.push(value(W, 2)); s.push(value(W, 3));
+    s.shift(t); s.shift(t);
+    s.push(value(W, 4)); s.push(value(W, 5));                                   // 3 4 5 wrapping around
+    s.execute();
+    ok(values(s), "3 4 5");
+    ok(s.head.asInt(), 2);
+
+    s.reset();
+    s.shiftN(1);
+    s.execute();
+    ok(values(s), "4 5");
+    ok(s.head.asInt(), 3);
+
+    s.reset();
+    s.push(value(W, 6));                                                        // 4 5 6 with the head at the end of the array
+    s.shiftN(2);                                                                // Head wraps past the end of the array
+    s.execute();
+    ok(values(s), "6");
+    ok(s.head.asInt(), 1);
+
+    s.reset();
+    s.push(value(W, 7)); s.push(value(W, 8));
+    s.popN(2);                                                                  // Discard from the top
+    s.execute();
+    ok(values(s), "6");
+   }
+
+  static void oldTests()                                                        // Tests thought to be in good shape
+   {test_push_shift();
+    test_unshift();
+    test_insert_remove();
+    test_index_of();
+    test_up();
+    test_binary();
+    test_bulk();
+   }
+
+  static void newTests()                                                        // Tests being worked on
+   {oldTests();
+   }
+
+  public static void main(String[] args)                                        // Test if called as a program
+   {try                                                                         // Get a traceback in a format clickable in Geany if something goes wrong to speed up debugging.
+     {if (github_actions) oldTests(); else newTests();                          // Tests to run
+      testSummary();                                                            // Summarize test results
+      System.exit(testsFailed);
+     }
+    catch(Exception e)                                                          // Get a traceback in a format clickable in Geany
+     {System.err.println(e);
+      System.err.println(fullTraceBack(e));
+      System.exit(1);
+     }
+   }
+ }
@@ -0,0 +1,225 @@
+//------------------------------------------------------------------------------
+// A stuck whose elements are kept in ascending order so they can be located by binary search.
+// Philip R Brenan at appaapps dot com, Appa Apps Ltd Inc., 2024
+//------------------------------------------------------------------------------
+package com.AppaApps.Silicon;                                                   // Design, simulate and layout  a binary tree on a silicon chip.
+
+import java.util.*;
+
+class SortedStuck extends Stuck                                                 // Sorted stuck: a stuck whose elements are kept in ascending order of the key held in the leading bits of each element so that an element can be found with log2(max) comparisons rather than max comparisons
+ {final int keyWidth;                                                           // Number of leading bits in each element that form its key
+  final int bits;                                                               // Number of bits in a binary index into the stuck. Wide enough to hold max.
+  final Layout          search;                                                 // Layout of the binary search work area
+  final Layout.Variable count;                                                  // Number of elements in the stuck as a binary integer
+  final Layout.Variable pos;                                                    // Binary number of elements known to be less than the search key
+  final Layout.Variable probe;                                                  // Binary index of the element being compared
+  final Layout.Variable allOnes;                                                // Constant ones used to fill the low bits of a probe
+  final Layout.Bit      valid;                                                  // The probe indexes a valid element
+  final Layout.Bit      less;                                                   // The probed element is less than the search key
+
+//D1 Construction                                                               // Create a sorted stuck
+
+  SortedStuck(String Name, int Max, Layout repeat, int KeyWidth)                // Create the sorted stuck with a maximum number of the specified elements ordered by the specified number of leading bits
+   {this(Name, Max, repeat, KeyWidth, Encoding.of(Max > binaryThreshold));
+   }
+
+  SortedStuck(String Name, int Max, Layout repeat, int KeyWidth, Encoding Enc)  // Create the sorted stuck with a maximum number of the specified elements ordered by the specified number of leading bits and a size held in the specified encoding
+   {super(Name, Max, repeat, Enc);
+    if (KeyWidth < 1 || KeyWidth > width) stop("Key width must be between one and",
+      width, "bits, not:", KeyWidth);
+    keyWidth = KeyWidth;
+    bits     = logTwo(max+1);                                                   // Enough bits to hold the size of a full stuck
+    search   = new Layout();                                                    // Work area for binary search
+    count    = search.variable ("count",   bits);
+    pos      = search.variable ("pos",     bits);
+    probe    = search.variable ("probe",   bits);
+    allOnes  = search.variable ("allOnes", bits);
+    valid    = search.bit      ("valid");
+    less     = search.bit      ("less");
+    search.layout("search", count, pos, probe, allOnes, valid, less);           // Layout of work area
+    search.asField().zero();
+    allOnes.ones();
+    Layout.constants(allOnes);                                                  // Mark as constant
+   }
+
+  static SortedStuck sortedStuck(String Name, int Max, Layout Layout,           // Create a sorted stuck
+                                 int KeyWidth)
+   {return new SortedStuck(Name, Max, Layout, KeyWidth);
+   }
+
+//D1 Search                                                                     // Binary search of the sorted stuck
+
+  void lowerBound(LayoutAble key, Layout.Variable index)                        // Set an index encoded like the size of the stuck to the position of the first element whose key is greater than or equal to the search key or to the size of the stuck if there is no such element
+   {final Layout.Field k = key.asField();
+    if (binary) copy(count, unary.value);                                       // Number of valid elements in binary
+    else convertUnaryToBinary(count, unary.value);
+    zero(pos);                                                                  // No elements known to be less than the key yet
+    for (int b = bits-1; b >= 0; b--)                                           // Each power of two from the largest down, branchless except for the guard against probing past the valid elements
+     {final int B = b;                                                          // Bit of pos decided by this probe
+      copy(probe, pos);                                                         // The probe is pos + 2**b - 1 which, as pos is a multiple of 2**(b+1), is pos with the low b bits set
+      if (b > 0) copy(probe, 0, allOnes, 0, b);
+      lessThan(valid, probe, count);                                            // Probe a valid element
+      new If(valid)
+       {void Then()
+         {setIndex(array, probe);                                               // Index the probed element
+          lessThan(less, element, 0, k, 0, keyWidth);                           // Compare the key of the probed element with the search key
+          copy(pos, B, less, 0, 1);                                             // Skip the probed block of elements if its last element is less than the key
+         }
+       };
+     }
+    if (binary) copy(index, pos);                                               // Lower bound as an index encoded like the size of the stuck
+    else convertBinaryToUnary(index, pos);
+   }
+
+  void indexOf(LayoutAble key, Layout.Bit found, Layout.Variable index)         // Find the index of the element with the specified key and set found to true, else set found to false and the index to the position at which the key would be inserted
+   {lowerBound(key, index);                                                     // Position of first element not less than the key
+    zero(found);                                                                // Assume not found
+    lessThan(valid, index, unary.value);                                        // Lower bound indexes a valid element
+    new If(valid)
+     {void Then()
+       {setArrayIndex(index);                                                   // Index the element
+        Equals(found, element, 0, key.asField(), 0, keyWidth);                  // Check whether it has the search key
+       }
+     };
+   }
+
+//D1 Actions                                                                    // Place elements in the sorted stuck
+
+  void insert(LayoutAble elementToInsert)                                       // Insert an element in key order after any elements with the same key. The stuck must not be full.
+   {final Layout.Field e = elementToInsert.asField();
+    lowerBound(e, target);                                                      // Position of the first element whose key is not less than the key of the new element
+    insertElementAt(e, target);                                                 // Insert the element before it
+   }
+
+//D0 Tests                                                                      // Test sorted stuck
+
+  static Layout keyData(int K, int D)                                           // Layout of a key, data pair
+   {final Layout           l = new Layout();
+    final Layout.Variable  k = l.variable ("key",  K);
+    final Layout.Variable  d = l.variable ("data", D);
+    final Layout.Structure s = l.structure("s", k, d);
+    l.layout(s);
+    return l;
+   }
+
+  static Layout keyData(int K, int D, int key, int data)                        // A key, data pair with the specified values
+   {final Layout l = keyData(K, D);
+    l.get("key") .fromInt(key);
+    l.get("data").fromInt(data);
+    return l;
+   }
+
+  static String keys(SortedStuck s)                                             // Keys in the sorted stuck
+   {final StringBuilder b = new StringBuilder();
+    final int N = s.size();
+    for (int i = 0; i < N; i++)
+     {s.array.setIndex(i);
+      b.append(" "+(s.element.asInt() & ((1<<s.keyWidth)-1)));                  // Key is in the leading bits of the element
+     }
+    return b.toString().trim();
+   }
+
+  static void test_insert()
+   {final int K = 6, D = 4, M = 8;
+    final SortedStuck s = sortedStuck("s", M, keyData(K, D), K);
+    for (int k : new int[]{30, 10, 50, 20, 40, 10, 60})                         // Insert out of order
+     {s.insert(keyData(K, D, k, k/10));
+     }
+    s.execute();
+    ok(s.size(), 7);
+    ok(keys(s), "10 10 20 30 40 50 60");
+   }
+
+  static void test_lower_bound()
+   {final int K = 6, D = 4, M = 8;
+    final SortedStuck s = sortedStuck("s", M, keyData(K, D), K);
+    for (int k : new int[]{10, 20, 30, 40, 50}) s.push(keyData(K, D, k, 0));
+
+    final Layout          l = new Layout();
+    final Layout.Variable a = l.variable("a", M);
+    final Layout.Variable b = l.variable("b", M);
+    final Layout.Variable c = l.variable("c", M);
+    final Layout.Variable d = l.variable("d", M);
+    l.layout("s", a, b, c, d);
+
+    s.lowerBound(keyData(K, D,  5, 0), a);
+    s.lowerBound(keyData(K, D, 30, 0), b);
+    s.lowerBound(keyData(K, D, 31, 0), c);
+    s.lowerBound(keyData(K, D, 63, 0), d);
+    s.execute();
+    ok(a.asUnary(), 0);
+    ok(b.asUnary(), 2);
+    ok(c.asUnary(), 3);
+    ok(d.asUnary(), 5);
+   }
+
+  static void test_index_of()
+   {final int K = 6, D = 4, M = 16;
+    final SortedStuck s = sortedStuck("s", M, keyData(K, D), K);
+    for (int i = 0; i < M; i++) s.push(keyData(K, D, 2*i+1, i));                // Full stuck of odd keys
+
+    final Layout          l = new Layout();
+    final Layout.Bit      f = l.bit     ("f");
+    final Layout.Bit      g = l.bit     ("g");
+    final Layout.Bit      h = l.bit     ("h");
+    final Layout.Variable i = l.variable("i", M);
+    final Layout.Variable j = l.variable("j", M);
+    final Layout.Variable k = l.variable("k", M);
+    l.layout("s", f, g, h, i, j, k);
+
+    s.indexOf(keyData(K, D, 23, 0), f, i);                                      // Present
+    s.indexOf(keyData(K, D, 24, 0), g, j);                                      // Absent
+    s.indexOf(keyData(K, D, 31, 0), h, k);                                      // Last element
+    s.execute();
+    ok(f.get(), true);
+    ok(i.asUnary(), 11);
+    ok(g.get(), false);
+    ok(j.asUnary(), 12);
+    ok(h.get(), true);
+    ok(k.asUnary(), 15);
+   }
+
+  static void test_binary()
+   {final int K = 6, D = 4, M = 8, T = binaryThreshold;
+    binaryThreshold = 4;                                                        // Hold the size in binary
+    final SortedStuck s = sortedStuck("s", M, keyData(K, D), K);
+    binaryThreshold = T;
+    ok(s.binary, true);
+
+    final Layout          l = new Layout();
+    final Layout.Bit      f = l.bit     ("f");
+    final Layout.Variable i = l.variable("i", s.indexWidth());
+    l.layout("s", f, i);
+
+    for (int k : new int[]{30, 10, 50, 20, 40}) s.insert(keyData(K, D, k, 0));
+    s.indexOf(keyData(K, D, 40, 0), f, i);
+    s.execute();
+    ok(keys(s), "10 20 30 40 50");
+    ok(f.get(), true);
+    ok(i.asInt(), 3);
+   }
+
+  static void oldTests()                                                        // Tests thought to be in good shape
+   {test_insert();
+    test_lower_bound();
+    test_index_of();
+    test_binary();
+   }
+
+  static void newTests()                                                        // Tests being worked on
+   {oldTests();
+   }
+
+  public static void main(String[] args)                                        // Test if called as a program
+   {try                                                                         // Get a traceback in a format clickable in Geany if something goes wrong to speed up debugging.
+     {if (github_actions) oldTests(); else newTests();                          // Tests to run
+      testSummary();                                                            // Summarize test results
+      System.exit(testsFailed);
+     }
+    catch(Exception e)                                                          // Get a traceback in a format clickable in Geany
+     {System.err.println(e);
+      System.err.println(fullTraceBack(e));
+      System.exit(1);
+     }
+   }
+ }
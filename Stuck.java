@@ -23,24 +23,39 @@ class Stuck extends BitMachine implements LayoutAble
 
   final int max;                                                                // The maximum number of entries in the stuck.
   final int width;                                                              // The width of each object in the stuck in bits
+  final Encoding encoding;                                                      // Encoding of the size of the stuck and of indices into the stuck
+  final boolean binary;                                                         // The size and indices of the stuck are held in binary rather than unary
+
+  static int binaryThreshold = 64;                                              // Stucks with more elements than this hold their size and indices in log2(max) bits of binary rather than max bits of unary
 
 //D1 Construction                                                               // Create a stuck
 
   Stuck(String Name, int Max, Layout repeat)                                    // Create the stuck with a maximum number of the specified elements
+   {this(Name, Max, repeat, Max > binaryThreshold);
+   }
+
+  Stuck(String Name, int Max, Layout repeat, boolean Binary)                    // Create the stuck with a maximum number of the specified elements and a size held in unary or binary
+   {this(Name, Max, repeat, Encoding.of(Binary));
+   }
+
+  Stuck(String Name, int Max, Layout repeat, Encoding Enc)                      // Create the stuck with a maximum number of the specified elements and a size held in the specified encoding
    {super(Name);
+    if (Enc != Encoding.unary && Enc != Encoding.binary)                        // The array indexing instructions decode unary or binary indices
+      stop("Stucks can only be indexed in unary or binary, not:", Enc);
     name     = Name;                                                            // Name of stuck
     max      = Max;                                                             // Maximum size
     width    = repeat.size();                                                   // Width of element of stuck
-    unary    = Unary.unary(max);                                                // Unary number showing which elements in the stack are valid
+    encoding = Enc;                                                             // Encoding of size and indices
+    binary   = encoding == Encoding.binary;
+    unary    = new Unary(max, encoding);                                        // Number showing which elements in the stack are valid
     layout   = new Layout();                                                    // An element of the stuck
     array    = layout.array    ("array", repeat.duplicate(), max);              // An array of elements comprising the stuck. Duplicate the input element so that we can manipulate it inmdependently
     stuck    = layout.structure(name, array,  unary);                           // An array of elements comprising the stuck
     layout.layout(stuck);                                                       // Layout the structure of the stuck
-    element  = layout.get("array"+"."+repeat.top.name);                         // Element on stuck
-    stuck.zero();
+    element  = layout.get("array"+"."+repeat.top.name);                         // Element on stuck. Laying out the stuck gave it a new memory of zeros so there is no need to clear it bit by bit.
     temp     = new Layout();                                                    // Temporary storage
-    source   = temp.variable ("source", max);                                   // Source index
-    target   = temp.variable ("target", max);                                   // Target index
+    source   = temp.variable ("source", indexWidth());                          // Source index
+    target   = temp.variable ("target", indexWidth());                          // Target index
     buffer   = temp.variable ("buffer", width);                                 // Buffer for moving data in and out of the stuck
     temp.layout("structure", source, target, buffer);                           // Layout of temporary storage
     temp.asField().zero();                                                      // Clear temporary storage
@@ -51,24 +66,42 @@ class Stuck extends BitMachine implements LayoutAble
    {return new Stuck(Name, Max, Layout);
    }
 
-  Stuck like()        {return new Stuck(name, max, element.duplicate());}       // Make a stuck like this one
-  Stuck like(int Max) {return new Stuck(name, Max, element.duplicate());}       // Make a stuck like this one with a specified size
+  Stuck like()                                                                  // Make a stuck like this one
+   {return new Stuck(name, max, element.duplicate(), encoding);
+   }
+  Stuck like(int Max)                                                           // Make a stuck like this one with a specified size
+   {return new Stuck(name, Max, element.duplicate(), encoding);
+   }
 
   void clear() {zero(stuck);}                                                   // Clear a stuck
 
   public void ok(String expected) {ok(toString(), expected);}                   // Check the stuck
 
   int size() {return unary.value();}                                            // The current number of elements in the stuck as a binary integer
-  void setSize(int size) {unary.value.fromUnary(size);}                         // Set the current size of a stuck
+  void setSize(int size) {unary.set(size);}                                     // Set the current size of a stuck
+
+  int indexWidth() {return unary.value.width;}                                  // Number of bits in the size of the stuck and in an index into the stuck
 
-  Layout.Variable currentSize()                                                 // Return the current number of elements in the stuck as a unary integer
-   {final Layout.Variable s = Layout.createVariable("size", max);
+  Layout.Variable currentSize()                                                 // Return the current number of elements in the stuck as a unary or binary integer matching the encoding of the stuck
+   {final Layout.Variable s = Layout.createVariable("size", indexWidth());
     copy(s, unary.value);
     return s;
    }
 
 //D1 Indexing                                                                   // Index the stuck
 
+  void setArrayIndex(Layout.Variable index)                                     // Index the array of the stuck with an index encoded like the size of the stuck
+   {if (binary) setIndex(array, index); else setIndexFromUnary(array, index);
+   }
+
+  void incIndex(Layout.Variable index)                                          // Increment an index encoded like the size of the stuck
+   {if (binary) inc(index); else shiftLeftOneByOne(index);
+   }
+
+  void decIndex(Layout.Variable index)                                          // Decrement an index encoded like the size of the stuck
+   {if (binary) dec(index); else shiftRightOneByZero(index);
+   }
+
   class Index                                                                   // A variable with which to index the stuck
    {final Layout          layout = new Layout();                                // Layout of index
     final Layout.Variable index;                                                // Index variable
@@ -76,7 +109,7 @@ class Stuck extends BitMachine implements LayoutAble
     final Layout.Bit      valid;                                                // Indicate whether the index is valid or not
 
     Index(String Name)                                                          // Create the index variable
-     {index = layout.variable(Name, max);                                       // Index
+     {index = layout.variable(Name, indexWidth());                              // Index
       valid = layout.bit     ("valid");                                         // Validity of index
       value = layout.variable("value",  width);                                 // Value associated with index - but you have to request that it be set
       final Layout.Structure s = layout.new Structure("s", index, valid, value);// Structure of index
@@ -85,11 +118,11 @@ class Stuck extends BitMachine implements LayoutAble
 
     Index() {this("");}                                                         // An unnamed index
 
-    Layout.Variable inc()         {shiftLeftOneByOne(index);   return index;}   // Increment the index
-    Layout.Variable dec()         {shiftRightOneByZero(index); return index;}   // Decrement theindex
+    Layout.Variable inc()         {incIndex(index);            return index;}   // Increment the index
+    Layout.Variable dec()         {decIndex(index);            return index;}   // Decrement theindex
 
     Layout.Variable first()       {zero(index);                return index;}   // Set the index to index the first element on the stuck if there is one
-    Layout.Variable last()        {past(); shiftRightOneByZero(index); return index;} // Set the index to index the last element on the stuck if there is one.
+    Layout.Variable last()        {past(); decIndex(index);    return index;}   // Set the index to index the last element on the stuck if there is one.
     Layout.Variable past()        {copy(index, unary.value);   return index;}   // Set the index to index one past the last element on the stuck.
     Layout.Variable setValid()    {ones(valid);                return index;}   // Show that the index is valid
     Layout.Variable setNotValid() {zero(valid);                return index;}   // Show that the index is not valid
@@ -116,7 +149,7 @@ class Stuck extends BitMachine implements LayoutAble
 //D1 Actions                                                                    // Place and remove data to/from stuck
 
   void push(LayoutAble ElementToPush)                                           // Push an element onto the stuck
-   {setIndexFromUnary(array, unary.value);                                      // Index stuck
+   {setArrayIndex(unary.value);                                                 // Index stuck
     copy(element, ElementToPush.asField());                                     // Copy data into the stuck
     unary.inc();                                                                // Show next free slot
    }
@@ -129,115 +162,115 @@ class Stuck extends BitMachine implements LayoutAble
 
   void pop(LayoutAble PoppedElement)                                            // Pop an element from the stuck
    {unary.dec();                                                                // Index of top most element
-    setIndexFromUnary(array, unary.value);                                      // Set index of topmost element
+    setArrayIndex(unary.value);                                                 // Set index of topmost element
     copy(PoppedElement.asField(), element);                                     // Copy data out of the stuck
    }
 
   void shift(LayoutAble ShiftedElement)                                         // Shift an element from the stuck
    {zero(target);                                                               // Index of the first element
-    setIndexFromUnary(array, target);                                           // Index of first element
+    setArrayIndex(target);                                                      // Index of first element
     copy(ShiftedElement.asField(), element);                                    // Copy shifted element out
-    zero(source);                                                               // Index the start of the stuck
-    shiftLeftOneByOne(source);                                                  // Index first element of stuck
-
-    for (int i = 1; i < max; i++)                                               // Shift the stuck down one place
-     {setIndexFromUnary(array, source);                                         // Source index
-      copy(buffer, element);                                                    // Copy element at source
-      setIndexFromUnary(array, target);                                         // Taregt index is one less than source index
-      copy(element, buffer);                                                    // Copy the copy of the source element into the target position
-      shiftLeftOneByOne(source);                                                // Next source
-      shiftLeftOneByOne(target);                                                // Next target
-     }
+    moveRange(array, 1, max-1, -1);                                             // Shift the stuck down one place
     unary.dec();                                                                // New number of elements on stuck after one has been shifted out
    }
 
   void unshift(LayoutAble ElementToUnShift)                                     // Unshift an element from the stuck by moving all the elements up one place
-   {ones(source);                                                               // Start the source at the top
-    ones(target);                                                               // Start the target at the top
-
-    shiftRightOneByZero(target);                                                // Last slot
-    shiftRightOneByZero(source);                                                // Last slot
-    shiftRightOneByZero(source);                                                // Second to last slot
-
-    for (int i = 1; i < max; ++i)                                               // Shift the stuck up one place
-     {setIndexFromUnary(array, source);                                         // Index source
-      copy(buffer, element);                                                    // Copy source
-      setIndexFromUnary(array, target);                                         // Index target
-      copy(element, buffer);                                                    // Copy target
-      shiftRightOneByZero(source);                                              // Move target down one
-      shiftRightOneByZero(target);                                              // Move source down one
-     }
+   {moveRange(array, 0, max-2, 1);                                              // Shift the stuck up one place
     zero(target);                                                               // Index of the first element
-    setIndexFromUnary(array, target);                                           // Index the first element
+    setArrayIndex(target);                                                      // Index the first element
     copy(element, ElementToUnShift.asField());                                  // Copy in the new element
     unary.inc();                                                                // New number of elements on stuck
    }
 
   void elementAt(LayoutAble elementOut, Layout.Variable index)                  // Return the element at the indicated zero based index
-   {setIndexFromUnary(array, index);                                            // Index of required element
+   {setArrayIndex(index);                                                       // Index of required element
     copy(elementOut.asField(), element);                                        // Copy element out
    }
 
   void setElementAt(LayoutAble elementIn, Layout.Variable index)                // Set the element at the indicated zero based index
-   {setIndexFromUnary(array, index);                                            // Index of element to set
+   {setArrayIndex(index);                                                       // Index of element to set
     copy(element, elementIn.asField());                                         // Copy element in
    }
 
   void insertElementAt(LayoutAble elementToInsert, Layout.Variable index)       // Insert an element represented as memory into the stuckstack at the indicated zero based index after moving the elements above up one position
-   {ones(target);                                                               // Top of stuck
-    ones(source);                                                               // Top of stuck
-    shiftRightOneByZero(target);                                                // One step down on target
-    shiftRightOneByZero(source);                                                // One step down on source
-    new Repeat()
-     {void code()
-       {returnIfEqual(target, index);                                           // Test for finish of shifting phase
-        shiftRightOneByZero(source);                                            // One step down on source
-        setIndexFromUnary(array, source);                                       // Index of source
-        copy(buffer, element);                                                  // Copy source into buffer
-        setIndexFromUnary(array, target);                                       // Index of target
-        copy(element, buffer);                                                  // Copy copy of osurce into target slot
-        shiftRightOneByZero(target);                                            // One step down on target
-       }
-     };
-    setIndexFromUnary(array, index);                                            // Index of element to set
+   {moveRange(array, index, binary, 0, max-2, 1);                               // Move the elements above the index up one place
+    setArrayIndex(index);                                                       // Index of element to set
     copy(element, elementToInsert.asField());                                   // Copy in new element
     unary.inc();                                                                // New number of elements on stuck
    }
 
   void removeElementAt(Layout.Variable index)                                   // Remove the element at the indicated zero based index
-   {copy(target, index);                                                        // Target of removal
-    copy(source, target);                                                       // Source of removeal
-    shiftLeftOneByOne(source);                                                  // One step down on source
-    new Repeat()
-     {void code()
-       {returnIfAllOnes(source);                                                // Test for finish of shifting phase
-        setIndexFromUnary(array, source);                                       // Index of source
-        copy(buffer, element);                                                  // Copy source into buffer
-        setIndexFromUnary(array, target);                                       // Index of target
-        copy(element, buffer);                                                  // Copy copy of osurce into target slot
-        shiftLeftOneByOne(target);                                              // One step down on target
-        shiftLeftOneByOne(source);                                              // One step down on source
-       }
-     };
+   {moveRange(array, index, binary, 1, max-1, -1);                              // Move the elements above the index down one place
     unary.dec();                                                                // New number of elements on stuck
    }
 
   void firstElement(LayoutAble FirstElement)                                    // First element
    {zero(source);                                                               // Index of first element
-    setIndexFromUnary(array, source);                                           // Set index of first element
+    setArrayIndex(source);                                                      // Set index of first element
     copy(FirstElement.asField(), element);                                      // Copy of first element
    }
 
   void lastElement(LayoutAble LastElement)                                      // Last active element assuming there is one
    {copy(source, unary.value);                                                  // Index top of stuck
-    shiftRightOneByZero(source);                                                // Index of top most active element
-    setIndexFromUnary(array, source);                                           // Set index of topmost element
+    decIndex(source);                                                           // Index of top most active element
+    setArrayIndex(source);                                                      // Set index of topmost element
     copy(LastElement.asField(), element);                                       // Copy of top most element
    }
 
   Layout.Variable firstIndex() {return new Index("first").first();}             // Index of the first active element assuming there is one - which wuill be , of ocurse, the first element located at index 0
   Layout.Variable  lastIndex() {return new Index("last"). last();}              // Index of the last active element assuming there is one - which wuill be , of ocurse, the first element located at index 0
 
+//D1 Bulk                                                                       // Move several elements with a constant number of instructions
+
+  int sliceWidth() {return array.stride;}                                       // Number of bits occupied by each element in a slice
+
+  void sliceSource(int from)                                                    // Mark the element at the specified index as the start of the slice that will be appended by the next appendSlice. The containing arrays must be indexed so that this stuck is the source.
+   {if (array.columns) stop("Cannot copy slices of a stuck laid out in columns");
+    setIndexFromInt(array, from);                                               // Index the first element of the slice
+    copySetSource(element);                                                     // Address of the first element of the slice
+   }
+
+  void appendSlice(int count)                                                   // Append the specified number of elements from the slice marked by sliceSource. The containing arrays must now be indexed so that this stuck is the target.
+   {setArrayIndex(unary.value);                                                 // Index the first free slot
+    copySetTarget(element);                                                     // Address of the first free slot
+    copyLong(count * sliceWidth());                                             // Copy the slice in one step
+    unary.inc(count);                                                           // Single update of the size
+   }
+
+  void appendSlice(Layout.Variable count)                                       // Append the number of elements held in a variable encoded like the size of this stuck from the slice marked by sliceSource
+   {setArrayIndex(unary.value);                                                 // Index the first free slot
+    copySetTarget(element);                                                     // Address of the first free slot
+    copyLong(sliceWidth(), count, binary);                                      // Copy the slice in one step
+    unary.add(count);                                                           // Single update of the size
+   }
+
+  void popN(int count)                                                          // Discard the specified number of elements from the top of the stuck
+   {unary.dec(count);
+   }
+
+  void shiftN(int count)                                                        // Discard the specified number of elements from the bottom of the stuck by moving the remaining elements down in one step
+   {moveRange(array, count, max-1, -count);                                     // Move the remaining elements down
+    unary.dec(count);                                                           // Single update of the size
+   }
+
+  void sliceTo(Stuck target, int from, int count)                               // Append the specified number of elements starting at the specified index of this stuck to the target stuck. The two stucks must share memory, for example by being part of the same layout.
+   {setIndexFromInt(array, from);                                               // Index the first element of the slice
+    target.copySetSource(element);                                              // The target performs the copy
+    target.appendSlice(count);
+   }
+
+  void pushAll(Stuck source, int from, int count)                               // Push the specified number of elements starting at the specified index of the source stuck onto this stuck
+   {source.sliceTo(this, from, count);
+   }
+
+  void appendFrom(Stuck other)                                                  // Append all the elements of another stuck with the same encoding to this stuck
+   {if (other.binary != binary) stop("Both stucks must hold their sizes in the same encoding");
+    if (other instanceof RingStuck) stop("Cannot append slices of a ring stuck as its elements wrap around the end of its array");
+    setIndexFromInt(other.array, 0);                                            // Index the first element of the other stuck
+    copySetSource(other.element);
+    appendSlice(other.unary.value);
+   }
+
 //D1 Iteration                                                                  // Iterate over a stuck
 
   class Up extends Index                                                        // Iterate upwards over a stuck
@@ -245,12 +278,10 @@ class Stuck extends BitMachine implements LayoutAble
      {super("index");
       first();
       before();                                                                 // Before the loop starts
-      new Repeat()                                                              // Block of code for each iteration
+      new Loop(index, binary, 1, unary.value)                                   // Counted loop up to the size of the stuck
        {void code()
-         {returnIfOne(isPast());                                                // Past all the entries
-          get();                                                                // Get current entry
+         {get();                                                                // Get current entry
           up(this);                                                             // Process current entry
-          inc();                                                                // Move up
          }
        };
       after();                                                                  // After the loop ends
@@ -265,11 +296,9 @@ class Stuck extends BitMachine implements LayoutAble
      {super("index");
       past();
       before();                                                                 // Before the loop starts
-      Repeat r = new Repeat()                                                  // Block of code for each iteration
+      new Loop(index, binary, -1, true, null, 0, null, null)                    // Counted loop stepping down before each iteration until the first element has been processed
        {void code()
-         {returnIfOne(isFirst());                                               // No more entries
-          dec();                                                                // Move down
-          get();                                                                // Get the stuck entry at the current index
+         {get();                                                                // Get the stuck entry at the current index
           down(this);                                                           // Process the curent entry
          }
        };
@@ -285,14 +314,11 @@ class Stuck extends BitMachine implements LayoutAble
   void indexOf                                                                  // Find the index of an element in the stuck and set the found flag to true else if no such element is found the found flag is set to false
    (LayoutAble elementToFind, int length,                                       // Check whether the stuck contains the specified element  comparing the first length bits
     Layout.Bit elementFound,  Layout.Variable foundAtIndex)                     // Whether the element was found and at what index
-   {zero(elementFound);                                                         // Assume not found
-    new Up()                                                                    // Check each valid element in turn for a match
-     {void up(Repeat r)
-       {copy(foundAtIndex, index);
-        Equals(elementFound, elementToFind.asField(), 0, value, 0, length);     // Check for the element to be found
-        r.returnIfOne(elementFound);                                            // Found the element being searched for
-       }
-     };
+   {copy(foundAtIndex, unary.value);                                            // Index of the last valid element if the element is not found
+    decIndex(foundAtIndex);
+    searchAll(array, 0, length, elementToFind.asField(), unary.value,           // Compare every valid element at once
+              Match.equal, elementFound, foundAtIndex, binary);
+    setArrayIndex(foundAtIndex);                                                // Index the element found
    }
 
 //D1 Print                                                                      // Print a stuck
@@ -1436,6 +1462,135 @@ V    0     6                  1     last
 """);
    }
 
+  static void test_binary()
+   {final int M = 6;
+
+    final Layout           l = new Layout();
+    final Layout.Variable  k = l.variable("k",  M);
+    l.layout(k);
+
+    final Stuck s = new Stuck("s", M, l, true);
+    ok(s.indexWidth(), 3);                                                      // Three bits rather than six
+
+    final Layout          L = new Layout();
+    final Layout.Bit      e = L.bit     ("e");
+    final Layout.Bit      f = L.bit     ("f");
+    final Layout.Bit      g = L.bit     ("g");
+    final Layout.Variable i = L.variable("i", s.indexWidth());
+    final Layout.Variable j = L.variable("j", s.indexWidth());
+    final Layout.Variable v = L.variable("v", M);
+    final Layout.Variable w = L.variable("w", M);
+    L.layout("s", e, f, g, i, j, v, w);
+    i.fromInt(1); j.fromInt(3);
+
+    s.isEmpty(e);
+    for (int n = 1; n <= 5; n++) s.push(n);                                     // 1 2 3 4 5
+    s.shift(v);                                                                 // 2 3 4 5
+    s.unshift(l);                                                               // 0 2 3 4 5
+    s.insertElementAt(l, i);                                                    // 0 0 2 3 4 5
+    s.isFull(f);
+    s.removeElementAt(j);                                                       // 0 0 2 4 5
+    s.lastElement(w);
+    final Layout q = k.duplicate();                                             // Search for four
+    q.asField().fromInt(4);
+    s.indexOf(q, M, g, j);
+    s.execute();
+
+    ok(e.get(), true);
+    ok(f.get(), true);
+    ok(v.asInt(), 1);
+    ok(w.asInt(), 5);
+    ok(s.size(), 5);
+    ok(g.get(), true);
+    ok(j.asInt(), 3);
+    final StringBuilder b = new StringBuilder();
+    for (int n = 0; n < s.size(); n++) {s.array.setIndex(n); b.append(" "+s.element.asInt());}
+    ok(b.toString().trim(), "0 0 2 4 5");
+   }
+
+  static String values(Stuck s)                                                 // Values of the elements of a stuck
+   {final StringBuilder b = new StringBuilder();
+    for (int n = 0; n < s.size(); n++)
+     {s.array.setIndex(n);
+      b.append(" "+s.element.asInt());
+     }
+    return b.toString().trim();
+   }
+
+  static void test_bulk()
+   {final int M = 8;
+
+    final Layout           l = new Layout();
+    final Layout.Variable  k = l.variable("k",  M);
+    l.layout(k);
+
+    final Stuck s = stuck("s", M, l), t = stuck("t", M, l);
+    final Layout L = new Layout();                                              // The stucks must share memory to copy slices between them
+    L.layout("st", s.asField(), t.asField());
+    final BitMachine m = new BitMachine();                                      // Run the instructions of both stucks in order
+    m.bitMachines(s, t);
+
+    for (int n = 1; n <= 6; n++) s.push(n);
+    s.sliceTo(t, 1, 3);                                                         // t: 2 3 4
+    t.pushAll(s, 4, 2);                                                         // t: 2 3 4 5 6
+    s.shiftN(2);                                                                // s: 3 4 5 6
+    s.popN(1);                                                                  // s: 3 4 5
+    t.appendFrom(s);                                                            // t: 2 3 4 5 6 3 4 5
+    m.execute();
+    ok(values(s), "3 4 5");
+    ok(values(t), "2 3 4 5 6 3 4 5");
+    ok(s.size(), 3);
+    ok(t.size(), 8);
+   }
+
+  static void test_bulk_binary()
+   {final int M = 6;
+
+    final Layout           l = new Layout();
+    final Layout.Variable  k = l.variable("k",  M);
+    l.layout(k);
+
+    final Stuck s = new Stuck("s", M, l, true), t = new Stuck("t", M, l, true);
+    final Layout L = new Layout();
+    L.layout("st", s.asField(), t.asField());
+    final BitMachine m = new BitMachine();                                      // Run the instructions of both stucks in order
+    m.bitMachines(s, t);
+
+    for (int n = 1; n <= 4; n++) s.push(n);
+    t.push(9);
+    s.shiftN(1);                                                                // s: 2 3 4
+    t.appendFrom(s);                                                            // t: 9 2 3 4
+    t.popN(2);                                                                  // t: 9 2
+    m.execute();
+    ok(values(s), "2 3 4");
+    ok(values(t), "9 2");
+   }
+
+  static void test_up_down_long()
+   {final int M = 16;
+
+    final Layout           l = new Layout();
+    final Layout.Variable  k = l.variable("k",  8);
+    l.layout(k);
+
+    final Stuck         s = stuck("s", M, l);
+    final StringBuilder u = new StringBuilder(), d = new StringBuilder();
+    for (int n = 1; n <= M; n++) s.push(n);
+    s.new Up()                                                                  // Every element of a full stuck
+     {void up(Repeat r)
+       {s.new Instruction() {void action() {u.append(" "+value.asInt());}};
+       }
+     };
+    s.new Down()
+     {void down(Repeat r)
+       {s.new Instruction() {void action() {d.append(" "+value.asInt());}};
+       }
+     };
+    s.execute();
+    ok(u.toString().trim(), "1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16");
+    ok(d.toString().trim(), "16 15 14 13 12 11 10 9 8 7 6 5 4 3 2 1");
+   }
+
   static void oldTests()                                                        // Tests thought to be in good shape
    {test_push();
     test_pop();
@@ -1454,6 +1609,10 @@ V    0     6                  1     last
     test_current_size();
     test_set_size();
     test_index_of_last_element();
+    test_binary();
+    test_bulk();
+    test_bulk_binary();
+    test_up_down_long();
    }
 
   static void newTests()                                                        // Tests being worked on
@@ -6,19 +6,31 @@ package com.AppaApps.Silicon;
 
 class Unary extends BitMachine implements LayoutAble                            // Unary arithmetic on a bit machine
  {final Layout.Variable value;                                                  // The value of the unary number
+  final Encoding encoding;                                                      // The encoding of the number in memory
+  final boolean binary;                                                         // The number is held in binary in log2(max) bits rather than in unary in max bits
+  final int maximum;                                                            // The maximum value of the number
 
 //D1 Construction                                                               // Create a unary number
 
-  Unary(int Max)                                                                // Create a unary number of specified size
+  Unary(int Max) {this(Max, false);}                                            // Create a unary number of specified size
+
+  Unary(int Max, boolean Binary) {this(Max, Encoding.of(Binary));}              // Create a number of specified size held in unary or binary
+
+  Unary(int Max, Encoding Enc)                                                  // Create a number of specified size held in the specified encoding
    {super("Unary");
     if (Max <= 0) stop("Unary size must be at least one, not", Max);            // Size check
-    layout = new Layout();
-    value  = layout.variable("unary", Max);                                     // The value of the unary number
+    encoding = Enc;
+    binary   = encoding == Encoding.binary;
+    maximum  = Max;
+    layout   = new Layout();
+    value    = layout.variable(encoding.name(), encoding.width(Max));           // The value of the number named after its encoding
     layout.layout(value);                                                       // Layout memory
+    if (encoding == Encoding.oneHot) set(0);                                    // Zero has a bit of its own
    }
-  static Unary unary(int Max) {return new Unary(Max);}                          // Create a unary number
+  static Unary unary (int Max) {return new Unary(Max);}                         // Create a unary number
+  static Unary binary(int Max) {return new Unary(Max, true);}                   // Create a number with the same operations as a unary number but held in binary
 
-  int max() {return value.width;}                                               // The maximum value of the unary number - override this method to set a non zero size
+  int max() {return maximum;}                                                   // The maximum value of the unary number - override this method to set a non zero size
 
   void ok(int n) {ok(value.asInt(), n);}                                        // Check that a unary number has the expected value
 
@@ -26,24 +38,109 @@ class Unary extends BitMachine implements LayoutAble
   Layout.Field layout() {return layout.top;}                                    // Get the topmost structure
 
   int value()                                                                   // The current value of the unary number as a binary integer
-   {final String s = value.asString();
-    int N = 0;
-    for (int i = 0; i < s.length(); i++) if (s.charAt(i) == '1') ++N;
-    return N;
+   {return encoding == Encoding.unary ? value.asUnary() :                       // Count the bits directly rather than via a string
+                                        encoding.decode(value);
    }
 
 //D1 Arithmetic                                                                 // Arithmetic using unary numbers
 
-  void zero() {zero(value);}                                                    // Clear unary number to all zeros
-  void ones() {ones(value);}                                                    // Set unary number to all ones
+  void set(int n)                                                               // Set the number immediately rather than when the bit machine is run
+   {encoding.encode(value, n);
+   }
+
+  void zero()                                                                   // Clear unary number to all zeros
+   {if (encoding == Encoding.oneHot) encode(value, 0, encoding); else zero(value);
+   }
+  void ones()                                                                   // Set unary number to all ones
+   {if (encoding == Encoding.unary) ones(value); else encode(value, maximum, encoding);
+   }
+
+  void canInc   (Layout.Bit result)                                             // Not full
+   {switch(encoding)
+     {case unary  -> {copy(result, 0, value, value.width-1, 1); not(result);}
+      case binary -> lessThan(result, value, maximum);
+      default     -> inRange(result, value, encoding, 0, maximum-1);
+     }
+   }
+  void canNotInc(Layout.Bit result)                                             // Full
+   {switch(encoding)
+     {case unary  -> copy(result, 0, value, value.width-1, 1);
+      case binary -> Equals(result, value, maximum);
+      default     -> inRange(result, value, encoding, maximum, maximum);
+     }
+   }
+  void canDec   (Layout.Bit result)                                             // Not empty
+   {switch(encoding)
+     {case unary  -> copy(result, 0, value, 0, 1);
+      case binary -> notEquals(result, value, 0);
+      default     -> inRange(result, value, encoding, 1, maximum);
+     }
+   }
+  void canNotDec(Layout.Bit result)                                             // Empty
+   {switch(encoding)
+     {case unary  -> {copy(result, 0, value, 0, 1); not(result);}
+      case binary -> Equals(result, value, 0);
+      default     -> inRange(result, value, encoding, 0, 0);
+     }
+   }
+
+  void inc()                                                                    // Increment the unary number
+   {switch(encoding)
+     {case unary  -> shiftLeftOneByOne(value);
+      case binary -> inc(value);
+      default     -> incBy(value, 1, encoding);
+     }
+   }
+  void dec()                                                                    // Decrement the unary number
+   {switch(encoding)
+     {case unary  -> shiftRightOneByZero(value);
+      case binary -> dec(value);
+      default     -> incBy(value, -1, encoding);
+     }
+   }
+  void inc(int n) {incBy(value,  n, encoding);}                                 // Increase the unary number by a constant in one step
+  void dec(int n) {incBy(value, -n, encoding);}                                 // Decrease the unary number by a constant in one step
+  void add(Layout.Variable n) {incBy(value, n, encoding);}                      // Increase the unary number by a variable encoded in the same way in one step
+  void sub(Layout.Variable n) {unarySub(value, value, n, encoding);}            // Decrease the unary number by a variable encoded in the same way in one step stopping at zero
+  void min(Layout.Variable n) {unaryMin(value, value, n, encoding);}            // Reduce the unary number to a variable encoded in the same way if the variable is smaller
+  void max(Layout.Variable n) {unaryMax(value, value, n, encoding);}            // Raise the unary number to a variable encoded in the same way if the variable is larger
+  void lessThan(Layout.Bit result, Layout.Variable n)                           // Set the result to whether the unary number is less than a variable encoded in the same way
+   {unaryLessThan(result, value, n, encoding);
+   }
+
+//D1 Encodings                                                                  // Compare the encodings available for a number
 
-  void canInc   (Layout.Bit result) {copy(result, 0, value, value.width-1, 1); not(result);} // Not full
-  void canNotInc(Layout.Bit result) {copy(result, 0, value, value.width-1, 1);}              // Full
-  void canDec   (Layout.Bit result) {copy(result, 0, value, 0,             1);}              // Not empty
-  void canNotDec(Layout.Bit result) {copy(result, 0, value, 0,             1); not(result);} // Empty
+  static int bitsChanged(Encoding encoding, int max)                            // Number of bits that change when counting from zero up to the maximum in the specified encoding
+   {final Layout          l = new Layout();
+    final Layout.Variable a = l.variable("a", encoding.width(max));
+    final Layout.Variable b = l.variable("b", encoding.width(max));
+    l.layout("s", a, b);
+    int n = 0;
+    for (int i = 0; i < max; i++)
+     {encoding.encode(a, i); encoding.encode(b, i+1);
+      for (int j = 0; j < a.width; j++) if (a.get(j) != b.get(j)) ++n;
+     }
+    return n;
+   }
 
-  void inc() {shiftLeftOneByOne  (value);}                                      // Increment the unary number
-  void dec() {shiftRightOneByZero(value);}                                      // Decrement the unary number
+  static String encodingReport(int...maxes)                                     // Memory bits, executed steps and bits changed for each encoding while counting up to each maximum checking for room each time and then back down again
+   {final StringBuilder s = new StringBuilder();
+    s.append(String.format("%4s  %-8s %6s %6s %8s\n", "Max", "Encoding", "Bits", "Steps", "Changed"));
+    for (int max : maxes)
+     {for (Encoding e : Encoding.values())
+       {final Unary           u = new Unary(max, e);
+        final Layout          l = new Layout();
+        final Layout.Bit      b = l.bit("b");
+        l.layout(b);
+        for (int i = 0; i < max; i++) {u.canInc(b); u.inc();}
+        for (int i = 0; i < max; i++) {u.canDec(b); u.dec();}
+        u.execute();
+        s.append(String.format("%4d  %-8s %6d %6d %8d\n",
+          max, e, u.value.width, u.step, 2 * bitsChanged(e, max)));
+       }
+     }
+    return s.toString();
+   }
 
 //D1 Print                                                                      // Print a unary number
 
@@ -103,11 +200,104 @@ V    0     4                 15   unary
     u1.layout.ok("""
 T   At  Wide  Index       Value   Field name
 V    0     4                  3   unary
+""");
+   }
+
+  static void test_binary()
+   {Layout           l = new Layout();
+    Layout.Bit       a = l.bit      ("a");
+    Layout.Bit       b = l.bit      ("b");
+    Layout.Bit       c = l.bit      ("c");
+    Layout.Bit       d = l.bit      ("d");
+    Layout.Structure s = l.structure("s", a, b, c, d);
+    l.layout(s);
+
+    Unary u = binary(6);
+    ok(u.value.width, 3);                                                       // Three bits rather than six
+    u.zero();
+    u.canDec(a);
+    u.canInc(b);
+    u.ones();
+    u.canNotInc(c);
+    u.dec();
+    u.dec();
+    u.inc();
+    u.canNotDec(d);
+    u.execute();
+    ok(u.value(), 5);
+    ok(u.max(),   6);
+    ok(a.get(), false);
+    ok(b.get(), true);
+    ok(c.get(), true);
+    ok(d.get(), false);
+   }
+
+  static void test_inc_by()
+   {final Unary u = unary(6), b = binary(6), n = unary(6);
+    n.value.fromUnary(2);
+    u.inc(4); u.dec(1); u.add(n.value);                                         // 4 - 1 + 2
+    b.inc(6); b.dec(2);
+    u.execute();
+    b.execute();
+    ok(u.value(), 5);
+    ok(b.value(), 4);
+   }
+
+  static void test_arithmetic()
+   {for (boolean B : new boolean[]{false, true})                                // Unary and binary
+     {final Unary u = new Unary(6, B), v = new Unary(6, B), w = new Unary(6, B);
+      final Layout          l = new Layout();
+      final Layout.Bit      r = l.bit("r"), s = l.bit("s");
+      l.layout("l", r, s);
+      v.set(2); w.set(5);
+      u.set(4); u.sub(v.value);                                                 // 4 - 2
+      u.max(w.value);                                                           // 5
+      u.lessThan(r, w.value);
+      u.sub(w.value); u.sub(w.value);                                           // Stops at zero
+      u.lessThan(s, v.value);
+      u.add(w.value); u.add(w.value);                                           // Clamped to the maximum in unary
+      u.min(v.value);
+      u.execute();
+      ok(r.get(), false);
+      ok(s.get(), true);
+      ok(u.value(), 2);
+     }
+   }
+
+  static void test_encodings()
+   {for (Encoding e : Encoding.values())                                        // The same operations in each encoding
+     {final Unary u = new Unary(6, e), v = new Unary(6, e);
+      final Layout          l = new Layout();
+      final Layout.Bit      a = l.bit("a"), b = l.bit("b"), c = l.bit("c");
+      l.layout("l", a, b, c);
+      v.set(2);
+      u.zero(); u.canNotDec(a);
+      u.inc(); u.inc(); u.inc(); u.dec();                                       // 2
+      u.add(v.value); u.inc(2);                                                 // 6
+      u.canInc(b);
+      u.sub(v.value);                                                           // 4
+      u.lessThan(c, v.value);
+      u.execute();
+      ok(u.value(), 4);
+      ok(a.get(), true);
+      ok(b.get(), false);
+      ok(c.get(), false);
+     }
+    ok(encodingReport(4), """
+ Max  Encoding   Bits  Steps  Changed
+   4  unary         4     20        8
+   4  binary        3     16       14
+   4  oneHot        5     16       16
+   4  gray          3     16        8
 """);
    }
 
   static void oldTests()                                                        // Tests thought to be in good shape
    {test_unary();
+    test_binary();
+    test_inc_by();
+    test_arithmetic();
+    test_encodings();
    }
 
   static void newTests()                                                        // Tests being worked on